@@ -0,0 +1,55 @@
+package com.whiteiverson.minecraft.playtime_plugin.benchmarks;
+
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures formatting a play time into its translated units, as done for /pt, /pttop and placeholders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CalculatePlaytimeBenchmark {
+
+    // A minute, a day and a year
+    @Param({"59", "86400", "31536000"})
+    public long seconds;
+
+    private PluginFixture fixture;
+    private Main plugin;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = PluginFixture.start("file", 0);
+        plugin = fixture.getPlugin();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Benchmark
+    public Map<String, String> calculatePlaytime() {
+        return Main.calculatePlaytime(seconds, plugin, null, plugin.getTranslator());
+    }
+}
@@ -0,0 +1,100 @@
+package com.whiteiverson.minecraft.playtime_plugin.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files, e.g. the committed baseline against a new run.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar com.whiteiverson.minecraft.playtime_plugin.benchmarks.CompareResults
+ * baseline/baseline.json results.json [threshold-percent]}
+ * <p>
+ * Exits with status 1 if any benchmark got slower by more than the threshold (10% by default)
+ * and by more than the combined error of both runs.
+ */
+public final class CompareResults {
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline.json> <results.json> [threshold-percent]");
+            System.exit(2);
+        }
+
+        Map<String, double[]> baseline = read(args[0]);
+        Map<String, double[]> current = read(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+
+        if (baseline.isEmpty()) {
+            System.out.println("The baseline has no results yet; record it on the reference machine (see README.md).");
+        }
+
+        boolean regressed = false;
+        for (Map.Entry<String, double[]> entry : current.entrySet()) {
+            double[] now = entry.getValue();
+            double[] before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf(Locale.ROOT, "%-90s %12.3f  (new)%n", entry.getKey(), now[0]);
+                continue;
+            }
+
+            // All benchmarks report time per operation, so higher is slower
+            double change = (now[0] - before[0]) / before[0] * 100.0;
+            boolean significant = Math.abs(now[0] - before[0]) > now[1] + before[1];
+            boolean slower = significant && change > threshold;
+            regressed |= slower;
+
+            System.out.printf(Locale.ROOT, "%-90s %12.3f -> %12.3f  %+7.1f%%%s%n", entry.getKey(), before[0], now[0],
+                    change, slower ? "  REGRESSION" : significant ? "" : "  (within error)");
+        }
+
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.printf(Locale.ROOT, "%-90s (missing from results)%n", key);
+            }
+        }
+
+        System.exit(regressed ? 1 : 0);
+    }
+
+    /**
+     * @return Score and score error of each benchmark, keyed by name and parameters.
+     */
+    private static Map<String, double[]> read(String file) throws IOException {
+        Map<String, double[]> results = new TreeMap<>();
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray runs = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                StringBuilder key = new StringBuilder(run.get("benchmark").getAsString());
+                if (run.has("params")) {
+                    Map<String, String> params = new TreeMap<>();
+                    run.getAsJsonObject("params").entrySet()
+                            .forEach(param -> params.put(param.getKey(), param.getValue().getAsString()));
+                    params.forEach((name, value) -> key.append(' ').append(name).append('=').append(value));
+                }
+
+                JsonObject metric = run.getAsJsonObject("primaryMetric");
+                double error = metric.get("scoreError").isJsonPrimitive() ? metric.get("scoreError").getAsDouble() : 0;
+                results.put(key.toString(), new double[] {
+                        metric.get("score").getAsDouble(),
+                        Double.isNaN(error) ? 0 : error
+                });
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,92 @@
+package com.whiteiverson.minecraft.playtime_plugin.benchmarks;
+
+import com.whiteiverson.minecraft.playtime_plugin.LeaderboardIndex;
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a page of /pttop: from the in-memory {@link LeaderboardIndex} in flat-file mode and from
+ * {@code UserDataManager.getLeaderboardPage} with a database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeaderboardBenchmark {
+    private static final int PAGE_SIZE = 10;
+    private static final long BUILD_TIMEOUT_MILLIS = 120_000L;
+
+    @Param({"100", "1000", "10000"})
+    public int players;
+
+    @Param({"file", "sqlite"})
+    public String storage;
+
+    private PluginFixture fixture;
+    private Main plugin;
+    private LeaderboardIndex index;
+    private int pages;
+    private int nextPage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = PluginFixture.start(storage, players);
+        plugin = fixture.getPlugin();
+        index = plugin.getUserHandler().getLeaderboard();
+
+        // Every online and offline player has play time, so all of them are ranked
+        int ranked = players * 2;
+        if (index != null) {
+            // The index is also filled from storage in the background on enable
+            long deadline = System.currentTimeMillis() + BUILD_TIMEOUT_MILLIS;
+            while (index.size() < ranked && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+        pages = (ranked + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Benchmark
+    public List<LeaderboardIndex.Entry> topPage() throws SQLException {
+        return page(1);
+    }
+
+    /**
+     * Pages through the whole leaderboard in order, as players flicking through /pttop would.
+     */
+    @Benchmark
+    public List<LeaderboardIndex.Entry> nextPage() throws SQLException {
+        nextPage = nextPage % pages + 1;
+        return page(nextPage);
+    }
+
+    private List<LeaderboardIndex.Entry> page(int page) throws SQLException {
+        return index != null
+                ? index.getPage((page - 1) * PAGE_SIZE, PAGE_SIZE)
+                : plugin.getUserDataManager().getLeaderboardPage(page, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,118 @@
+package com.whiteiverson.minecraft.playtime_plugin.benchmarks;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+import com.whiteiverson.minecraft.playtime_plugin.PlayerSession;
+import com.whiteiverson.minecraft.playtime_plugin.UserHandler;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.PersistenceExecutor;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.PlayerSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * PluginFixture starts the plugin on a MockBukkit server with a given storage backend and
+ * a number of online players, plus as many offline players that only exist in storage.
+ */
+public final class PluginFixture {
+    private static final long SEED = 42L;
+    private static final long DRAIN_TIMEOUT_MILLIS = 120_000L;
+
+    private final ServerMock server;
+    private final Main plugin;
+    private final List<PlayerMock> players = new ArrayList<>();
+    private final List<UUID> offlineUuids = new ArrayList<>();
+
+    private PluginFixture(ServerMock server, Main plugin) {
+        this.server = server;
+        this.plugin = plugin;
+    }
+
+    /**
+     * @param storage     "file" or "sqlite".
+     * @param playerCount How many online and how many offline players to create.
+     */
+    public static PluginFixture start(String storage, int playerCount) throws Exception {
+        ServerMock server = MockBukkit.mock();
+        Main plugin = MockBukkit.load(Main.class);
+
+        if ("sqlite".equals(storage)) {
+            // The backend is chosen on enable, so restart the plugin with the database turned on
+            plugin.getConfig().set("database.enabled", true);
+            plugin.getConfig().set("database.type", "SQLite");
+            plugin.saveConfig();
+            server.getPluginManager().disablePlugin(plugin);
+            server.getPluginManager().enablePlugin(plugin);
+        } else if (!"file".equals(storage)) {
+            throw new IllegalArgumentException("Unknown storage: " + storage);
+        }
+
+        PluginFixture fixture = new PluginFixture(server, plugin);
+        fixture.populate(playerCount);
+        return fixture;
+    }
+
+    private void populate(int playerCount) throws Exception {
+        Random random = new Random(SEED);
+        UserHandler userHandler = plugin.getUserHandler();
+
+        for (int i = 0; i < playerCount; i++) {
+            PlayerMock player = server.addPlayer();
+            PlayerSession session = userHandler.getSession(player.getUniqueId());
+            if (session == null) {
+                session = userHandler.openSession(player);
+            }
+            session.setPlaytime(random.nextInt(1_000_000));
+            players.add(player);
+        }
+
+        for (int i = 0; i < playerCount; i++) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+            userHandler.writeSnapshot(new PlayerSnapshot(uuid, "Offline" + i, "01.01.2024",
+                    random.nextInt(1_000_000), 0, Collections.emptyMap(), Collections.emptySet()));
+            offlineUuids.add(uuid);
+        }
+
+        userHandler.flushSessions();
+        awaitWrites();
+    }
+
+    /**
+     * Waits until the background writer has stored everything submitted so far,
+     * so measurements do not include writes left over from setup.
+     */
+    public void awaitWrites() throws InterruptedException {
+        PersistenceExecutor executor = plugin.getPersistenceExecutor();
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while ((executor.getPendingCount() > 0 || executor.getQueueDepth() > 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    public void stop() {
+        MockBukkit.unmock();
+    }
+
+    public ServerMock getServer() {
+        return server;
+    }
+
+    public Main getPlugin() {
+        return plugin;
+    }
+
+    public List<PlayerMock> getPlayers() {
+        return players;
+    }
+
+    public List<UUID> getOfflineUuids() {
+        return offlineUuids;
+    }
+}
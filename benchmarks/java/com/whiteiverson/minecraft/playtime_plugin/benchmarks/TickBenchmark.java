@@ -0,0 +1,81 @@
+package com.whiteiverson.minecraft.playtime_plugin.benchmarks;
+
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-tick work: processing every online player, and the reward check of a single player.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TickBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int players;
+
+    @Param({"file", "sqlite"})
+    public String storage;
+
+    private PluginFixture fixture;
+    private Main plugin;
+    private List<PlayerMock> online;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = PluginFixture.start(storage, players);
+        plugin = fixture.getPlugin();
+        online = fixture.getPlayers();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.stop();
+    }
+
+    @Benchmark
+    public void processPlayers() {
+        plugin.getPlayTimeHandler().processPlayers();
+    }
+
+    @Benchmark
+    public void processPlayer() {
+        plugin.getPlayTimeHandler().processPlayer(nextPlayer());
+    }
+
+    @Benchmark
+    public void processRewards() {
+        PlayerMock player = nextPlayer();
+        // Clear the cool down so the full check runs every time
+        plugin.getRewardCooldowns().remove(player.getUniqueId());
+        plugin.getRewardsHandler().processPlayer(player);
+    }
+
+    private PlayerMock nextPlayer() {
+        PlayerMock player = online.get(next);
+        next = (next + 1) % online.size();
+        return player;
+    }
+}
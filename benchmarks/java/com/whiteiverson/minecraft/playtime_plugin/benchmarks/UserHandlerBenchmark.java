@@ -0,0 +1,100 @@
+package com.whiteiverson.minecraft.playtime_plugin.benchmarks;
+
+import com.whiteiverson.minecraft.playtime_plugin.UserHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the UserHandler reads and writes used by commands, placeholders and rewards,
+ * for online players (served from their session) and offline players (served from storage).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserHandlerBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int players;
+
+    @Param({"file", "sqlite"})
+    public String storage;
+
+    private PluginFixture fixture;
+    private UserHandler userHandler;
+    private List<UUID> online;
+    private List<UUID> offline;
+    private int nextOnline;
+    private int nextOffline;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = PluginFixture.start(storage, players);
+        userHandler = fixture.getPlugin().getUserHandler();
+        online = new ArrayList<>();
+        fixture.getPlayers().forEach(player -> online.add(player.getUniqueId()));
+        offline = fixture.getOfflineUuids();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        fixture.awaitWrites();
+        fixture.stop();
+    }
+
+    @Benchmark
+    public double getPlaytimeOnline() {
+        return userHandler.getPlaytime(nextOnline());
+    }
+
+    @Benchmark
+    public double getPlaytimeOffline() {
+        return userHandler.getPlaytime(nextOffline());
+    }
+
+    @Benchmark
+    public boolean isRewardClaimedOnline() {
+        return userHandler.isRewardClaimed(nextOnline(), "Copper - 12 hours");
+    }
+
+    @Benchmark
+    public void setPlaytimeOnline() {
+        userHandler.setUserData(nextOnline(), "playtime", 3600.0);
+    }
+
+    @Benchmark
+    public void setPlaytimeOffline() {
+        userHandler.setUserData(nextOffline(), "playtime", 3600.0);
+    }
+
+    private UUID nextOnline() {
+        UUID uuid = online.get(nextOnline);
+        nextOnline = (nextOnline + 1) % online.size();
+        return uuid;
+    }
+
+    private UUID nextOffline() {
+        UUID uuid = offline.get(nextOffline);
+        nextOffline = (nextOffline + 1) % offline.size();
+        return uuid;
+    }
+}
@@ -0,0 +1,103 @@
+package com.whiteiverson.minecraft.playtime_plugin;
+
+import org.bukkit.Location;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ActivityTracker records when each online player last did something, for AFK detection.
+ * <p>
+ * Activity is reported from the server thread (moves, interactions) and from chat threads, so each player
+ * has a slot that is created once on join and then only updated in place. Events read a clock that is
+ * advanced once per tick instead of calling {@link System#currentTimeMillis()} themselves, and a slot is
+ * only written when that clock has moved on, so a burst of events within one tick costs a single read.
+ */
+public class ActivityTracker {
+
+    // Smallest head turn, in degrees, that counts as activity
+    private static final float MIN_ROTATION = 1.0f;
+
+    private final Map<UUID, AtomicLong> slots = new ConcurrentHashMap<>();
+    private volatile long clock = System.currentTimeMillis();
+
+    /**
+     * Advances the clock. Called once per tick by {@link TickTask}.
+     */
+    public void tick() {
+        clock = System.currentTimeMillis();
+    }
+
+    /**
+     * @return The time of the current tick in milliseconds.
+     */
+    public long now() {
+        return clock;
+    }
+
+    /**
+     * Starts tracking a player who just joined, counting the join as activity.
+     */
+    public void track(UUID uuid) {
+        slots.put(uuid, new AtomicLong(clock));
+    }
+
+    public void untrack(UUID uuid) {
+        slots.remove(uuid);
+    }
+
+    /**
+     * Records activity at the current tick. Activity of players that are not tracked, e.g. a chat
+     * message that arrives after the player quit, is ignored.
+     */
+    public void markActive(UUID uuid) {
+        AtomicLong slot = slots.get(uuid);
+        if (slot != null) {
+            long now = clock;
+            if (slot.get() != now) {
+                slot.lazySet(now);
+            }
+        }
+    }
+
+    /**
+     * Sets the last activity of a player to a given time, tracking them if they are not yet.
+     */
+    public void setLastActive(UUID uuid, long activeTime) {
+        slots.computeIfAbsent(uuid, key -> new AtomicLong()).set(activeTime);
+    }
+
+    /**
+     * @return The time of the player's last activity in milliseconds, or 0 if none was recorded.
+     */
+    public long getLastActive(UUID uuid) {
+        AtomicLong slot = slots.get(uuid);
+        return slot != null ? slot.get() : 0L;
+    }
+
+    public boolean isAfk(UUID uuid, long threshold) {
+        return clock - getLastActive(uuid) > threshold;
+    }
+
+    /**
+     * Whether a move is one the player made themselves: stepping into another block or turning their head.
+     * Small shifts within a block, such as being pushed by water or standing on a moving entity, are not.
+     */
+    public static boolean isMeaningfulMove(Location from, Location to) {
+        if (to == null) {
+            return false;
+        }
+
+        if (from.getBlockX() != to.getBlockX() || from.getBlockY() != to.getBlockY() || from.getBlockZ() != to.getBlockZ()) {
+            return true;
+        }
+
+        float yaw = Math.abs(from.getYaw() - to.getYaw()) % 360.0f;
+        if (Math.min(yaw, 360.0f - yaw) >= MIN_ROTATION) {
+            return true;
+        }
+        return Math.abs(from.getPitch() - to.getPitch()) >= MIN_ROTATION;
+    }
+}
@@ -0,0 +1,54 @@
+package com.whiteiverson.minecraft.playtime_plugin.Commands;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.WorldStatsImporter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.List;
+
+public class PlayTimeImportCommand implements CommandExecutor {
+    private final Main main;
+    private final WorldStatsImporter importer;
+
+    public PlayTimeImportCommand(Main main, WorldStatsImporter importer) {
+        this.main = main;
+        this.importer = importer;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, String[] args) {
+        if (!sender.hasPermission("playtime.import")) {
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                + main.getTranslator().getTranslation("error.no_permission", sender));
+            return true;
+        }
+
+        // Player stats are kept in the main world's folder
+        List<World> worlds = Bukkit.getWorlds();
+        if (worlds.isEmpty()) {
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                + main.getTranslator().getTranslation("import.no_world", sender));
+            return true;
+        }
+
+        File statsDir = new File(worlds.get(0).getWorldFolder(), "stats");
+        if (!statsDir.isDirectory()) {
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                + String.format(main.getTranslator().getTranslation("import.no_stats_folder", sender), statsDir.getAbsolutePath()));
+            return true;
+        }
+
+        if (!importer.start(statsDir, sender)) {
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                + main.getTranslator().getTranslation("import.already_running", sender));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package com.whiteiverson.minecraft.playtime_plugin.Commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.StorageMigrator;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+public class PlayTimeMigrateCommand implements CommandExecutor {
+    private final Main main;
+    private final StorageMigrator migrator;
+
+    public PlayTimeMigrateCommand(Main main, StorageMigrator migrator) {
+        this.main = main;
+        this.migrator = migrator;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, String[] args) {
+        if (!sender.hasPermission("playtime.migrate")) {
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                + main.getTranslator().getTranslation("error.no_permission", sender));
+            return true;
+        }
+
+        if (args.length != 2) {
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                + String.format(main.getTranslator().getTranslation("migrate.usage", sender),
+                    label, String.join(", ", StorageMigrator.BACKENDS)));
+            return true;
+        }
+
+        String from = args[0].toLowerCase(Locale.ROOT);
+        String to = args[1].toLowerCase(Locale.ROOT);
+        for (String backend : new String[] {from, to}) {
+            if (!StorageMigrator.BACKENDS.contains(backend)) {
+                sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                    + String.format(main.getTranslator().getTranslation("migrate.unknown_backend", sender),
+                        backend, String.join(", ", StorageMigrator.BACKENDS)));
+                return true;
+            }
+        }
+        if (from.equals(to)) {
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                + main.getTranslator().getTranslation("migrate.same_backend", sender));
+            return true;
+        }
+
+        if (!migrator.start(from, to, sender)) {
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                + main.getTranslator().getTranslation("migrate.already_running", sender));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,171 @@
+package com.whiteiverson.minecraft.playtime_plugin.Commands;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+import com.whiteiverson.minecraft.playtime_plugin.Database.SQLiteWriter;
+import com.whiteiverson.minecraft.playtime_plugin.Database.UserCache;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.PersistenceExecutor;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.LatencyHistogram;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.RecordCache;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+import java.util.Map;
+
+public class PlayTimeStatsCommand implements CommandExecutor {
+    private static final long TICK_NANOS = 50_000_000L;
+
+    private final Main main;
+
+    public PlayTimeStatsCommand(Main main) {
+        this.main = main;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, String[] args) {
+        if (!sender.hasPermission("playtime.stats")) {
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.error"))
+                + main.getTranslator().getTranslation("error.no_permission", sender));
+            return true;
+        }
+
+        if (args.length > 0 && args[0].equalsIgnoreCase("reset")) {
+            main.getMetrics().reset();
+            main.getUserHandler().getUserConfigCache().resetStats();
+            if (main.getDatabaseManager() != null && main.getDatabaseManager().getUserCache() != null) {
+                main.getDatabaseManager().getUserCache().getRecords().resetStats();
+            }
+            if (main.getPlayTimeHandler().getTickTask() != null) {
+                main.getPlayTimeHandler().getTickTask().resetStats();
+            }
+            sender.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.success"))
+                + main.getTranslator().getTranslation("stats.reset", sender));
+            return true;
+        }
+
+        sendLatencies(sender);
+        sendPersistence(sender);
+        sendPool(sender);
+        sendCache(sender);
+        return true;
+    }
+
+    private void sendLatencies(CommandSender sender) {
+        String header = main.getColorUtil().translateColor(main.getConfig().getString("color.header"));
+        String name = main.getColorUtil().translateColor(main.getConfig().getString("color.interval"));
+        String value = main.getColorUtil().translateColor(main.getConfig().getString("color.integer"));
+
+        sender.sendMessage(header + main.getTranslator().getTranslation("stats.latency_header", sender));
+
+        Map<String, LatencyHistogram> histograms = main.getMetrics().getHistograms();
+        if (histograms.values().stream().allMatch(histogram -> histogram.getCount() == 0)) {
+            sender.sendMessage(value + main.getTranslator().getTranslation("stats.nothing_recorded", sender));
+            return;
+        }
+
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+
+            sender.sendMessage(name + entry.getKey() + ": " + value
+                + formatNanos(histogram.getPercentile(50)) + " / "
+                + formatNanos(histogram.getPercentile(95)) + " / "
+                + formatNanos(histogram.getPercentile(99)) + " / "
+                + formatNanos(histogram.getMax())
+                + " (" + histogram.getCount() + ")");
+        }
+
+        // One bucket runs per tick, so its cost is the plugin's share of the tick budget
+        LatencyHistogram bucket = histograms.get("tick.bucket");
+        if (bucket != null && bucket.getCount() > 0) {
+            sender.sendMessage(line(sender, "stats.tick_share",
+                formatPercent(bucket.getMean()), formatPercent(bucket.getPercentile(99))));
+        }
+    }
+
+    private void sendPersistence(CommandSender sender) {
+        PersistenceExecutor executor = main.getPersistenceExecutor();
+        if (executor == null) {
+            return;
+        }
+
+        sender.sendMessage(line(sender, "stats.write_queue",
+            executor.getQueueDepth(), executor.getPendingCount(), executor.getMaxQueueDepth()));
+        sender.sendMessage(line(sender, "stats.writes",
+            executor.getWrittenCount(), executor.getBatchCount(), executor.getCoalescedCount(),
+            executor.getFailedCount(), executor.getRejectedCount()));
+    }
+
+    private void sendPool(CommandSender sender) {
+        if (main.getDatabaseManager() == null) {
+            return;
+        }
+        HikariPoolMXBean pool = main.getDatabaseManager().getPoolStats();
+        if (pool == null) {
+            return;
+        }
+
+        // How long a borrow takes is in the latency list as db.acquire
+        sender.sendMessage(line(sender, "stats.pool",
+            pool.getActiveConnections(), pool.getIdleConnections(), pool.getTotalConnections(),
+            pool.getThreadsAwaitingConnection()));
+
+        SQLiteWriter writer = main.getDatabaseManager().getSQLiteWriter();
+        if (writer != null) {
+            sender.sendMessage(line(sender, "stats.sqlite_writer",
+                writer.getWriteCount(), writer.getCommitCount(), writer.getQueueDepth()));
+        }
+
+    }
+
+    private void sendCache(CommandSender sender) {
+        RecordCache<?, ?> cache = main.getUserHandler().getUserConfigCache();
+        if (main.getDatabaseManager() != null && main.getDatabaseManager().isEnabled()) {
+            UserCache userCache = main.getDatabaseManager().getUserCache();
+            if (userCache == null) {
+                return;
+            }
+            cache = userCache.getRecords();
+        }
+
+        sender.sendMessage(line(sender, "stats.cache",
+            cache.size(), cache.getWeight() / 1024, cache.getMaxWeight() / 1024));
+        sender.sendMessage(line(sender, "stats.cache_reads",
+            cache.getHitCount(), cache.getMissCount(), String.format(Locale.ROOT, "%.1f%%", cache.getHitRate() * 100.0),
+            cache.getEvictionCount(), cache.getExpirationCount()));
+    }
+
+    /**
+     * Fills in a translated line, with the values in the value color and the rest in the label color.
+     */
+    private String line(CommandSender sender, String key, Object... values) {
+        String name = main.getColorUtil().translateColor(main.getConfig().getString("color.interval"));
+        String value = main.getColorUtil().translateColor(main.getConfig().getString("color.integer"));
+
+        Object[] colored = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            colored[i] = value + values[i] + name;
+        }
+        return name + String.format(main.getTranslator().getTranslation(key, sender), colored);
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 1_000L) {
+            return nanos + " ns";
+        }
+        if (nanos < 1_000_000L) {
+            return String.format(Locale.ROOT, "%.1f \u00b5s", nanos / 1_000.0);
+        }
+        return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000.0);
+    }
+
+    private static String formatPercent(long nanos) {
+        return String.format(Locale.ROOT, "%.2f%%", nanos * 100.0 / TICK_NANOS);
+    }
+}
@@ -9,13 +9,13 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
+import com.whiteiverson.minecraft.playtime_plugin.LeaderboardIndex;
 import com.whiteiverson.minecraft.playtime_plugin.Main;
+import com.whiteiverson.minecraft.playtime_plugin.PlayerSession;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class PlayTimeTopCommand implements CommandExecutor {
     private final Main main;
@@ -41,8 +41,8 @@ public class PlayTimeTopCommand implements CommandExecutor {
         if (!isCommandEnabled(sender)) return true;
 
         int page = parsePageNumber(args, player);
-        List<UUID> sortedPlayers = getSortedPlayers();
-        int totalPlayers = sortedPlayers.size();
+        LeaderboardIndex leaderboard = main.getUserHandler().getLeaderboard();
+        int totalPlayers = leaderboard != null ? leaderboard.size() : countDatabasePlayers();
         int totalPages = (int) Math.ceil((double) totalPlayers / PAGE_SIZE);
 
         if (page < 1 || page > totalPages) {
@@ -58,7 +58,12 @@ public class PlayTimeTopCommand implements CommandExecutor {
             return true;
         }
 
-        sendPlaytimeList(player, sortedPlayers, page, totalPages);
+        int startIndex = (page - 1) * PAGE_SIZE;
+        List<LeaderboardIndex.Entry> entries = leaderboard != null
+                ? leaderboard.getPage(startIndex, PAGE_SIZE)
+                : getDatabasePage(page);
+
+        sendPlaytimeList(player, entries, startIndex, page, totalPages);
         return true;
     }
 
@@ -89,20 +94,17 @@ public class PlayTimeTopCommand implements CommandExecutor {
         return page;
     }
 
-    private void sendPlaytimeList(Player player, List<UUID> sortedPlayers, int page, int totalPages) {
+    private void sendPlaytimeList(Player player, List<LeaderboardIndex.Entry> entries, int startIndex, int page, int totalPages) {
         player.sendMessage(main.getColorUtil().translateColor(main.getConfig().getString("color.header")) 
             + "=== " + main.getTranslator().getTranslation("playtime.top", player) + page + "/" + totalPages + ") ===");
 
-        int startIndex = (page - 1) * PAGE_SIZE;
-        int endIndex = Math.min(startIndex + PAGE_SIZE, sortedPlayers.size());
-
-        for (int i = startIndex; i < endIndex; i++) {
-            UUID uuid = sortedPlayers.get(i);
-            String displayName = resolveDisplayName(uuid);
+        for (int i = 0; i < entries.size(); i++) {
+            LeaderboardIndex.Entry entry = entries.get(i);
+            String displayName = resolveDisplayName(entry.getUuid(), entry.getUsername());
 
-            double playtime = main.getUserHandler().getPlaytime(uuid);
+            double playtime = entry.getPlaytime();
 
-            String indexStr = main.getColorUtil().translateColor(main.getConfig().getString("color.list-item")) + (i + 1) + ".";
+            String indexStr = main.getColorUtil().translateColor(main.getConfig().getString("color.list-item")) + (startIndex + i + 1) + ".";
 
             player.sendMessage(String.format("%s %s",
                     indexStr,
@@ -117,36 +119,33 @@ public class PlayTimeTopCommand implements CommandExecutor {
         }
     }
 
-    private List<UUID> getSortedPlayers() {
-        if (main.getDatabaseManager() != null && main.getDatabaseManager().isEnabled()) {
-            try {
-                return main.getUserDataManager().getAllUserUUIDs().stream()
-                        .map(UUID::fromString)
-                        .collect(Collectors.toList());
-            } catch (SQLException e) {
-                main.getLogger().severe("Failed to get player list from database: " + e.getMessage());
-                return Collections.emptyList();
-            }
-        } else {
-            // Your existing file-based code
-            File dataFolder = new File(main.getDataFolder(), "data");
+    // Flat-file storage is ranked by the in-memory leaderboard, so these are only used with a database
+    private int countDatabasePlayers() {
+        try {
+            return main.getUserDataManager().countLeaderboard();
+        } catch (SQLException e) {
+            main.getLogger().severe("Failed to count players in database: " + e.getMessage());
+            return 0;
+        }
+    }
 
-            if (!dataFolder.exists() || !dataFolder.isDirectory()) {
-                return Collections.emptyList();
+    private List<LeaderboardIndex.Entry> getDatabasePage(int page) {
+        List<LeaderboardIndex.Entry> entries = new ArrayList<>();
+        try {
+            for (LeaderboardIndex.Entry entry : main.getUserDataManager().getLeaderboardPage(page, PAGE_SIZE)) {
+                // Online players have gained time since their last save
+                PlayerSession session = main.getUserHandler().getSession(entry.getUuid());
+                entries.add(session == null ? entry
+                        : new LeaderboardIndex.Entry(entry.getUuid(), session.getUsername(), session.getPlaytime()));
             }
-
-            return Arrays.stream(Bukkit.getOfflinePlayers())
-                    .map(OfflinePlayer::getUniqueId)
-                    .filter(uuid -> new File(dataFolder, uuid + ".yml").exists())
-                    .filter(uuid -> main.getUserHandler().getPlaytime(uuid) > 0)
-                    .sorted(Comparator.comparingDouble(main.getUserHandler()::getPlaytime).reversed())
-                    .collect(Collectors.toList());
+        } catch (SQLException e) {
+            main.getLogger().severe("Failed to get player list from database: " + e.getMessage());
         }
+        return entries;
     }
 
-    private String resolveDisplayName(UUID uuid) {
-        OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(uuid);
-        Player onlinePlayer = offlinePlayer.getPlayer();
+    private String resolveDisplayName(UUID uuid, String storedName) {
+        Player onlinePlayer = Bukkit.getPlayer(uuid);
 
         if (onlinePlayer != null && onlinePlayer.isOnline()) {
             if (vaultChat != null) {
@@ -163,6 +162,10 @@ public class PlayTimeTopCommand implements CommandExecutor {
             return onlinePlayer.getName();
         }
 
+        if (storedName != null) {
+            return storedName;
+        }
+        OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(uuid);
         return offlinePlayer.getName() != null ? offlinePlayer.getName() : "Unknown";
     }
 
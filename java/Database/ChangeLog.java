@@ -0,0 +1,141 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * ChangeLog lets servers that share a database keep cached players up to date.
+ * <p>
+ * Every write of a player also appends the player's UUID and new row version to {@code PlayTime_Changes}, in the
+ * same transaction. Each server polls the table on a background timer and drops the players other servers
+ * changed from its {@link UserCache}. Ids are read again for one extra poll, so a write that was given a lower
+ * id but committed after a later one is still seen; the row version makes seeing it twice harmless.
+ * <p>
+ * Entries older than {@code database.change_log.retention_hours} are deleted now and then.
+ */
+public class ChangeLog implements Runnable {
+
+    private static final int PAGE_SIZE = 1000;
+    private static final long PRUNE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final DatabaseManager databaseManager;
+    private final UserCache cache;
+    private final Logger logger;
+    private final String serverId = UUID.randomUUID().toString();
+    private final long retentionMillis;
+
+    // Only touched by the polling task, which Bukkit never runs twice at once
+    private long lastId = -1;
+    private long previousLastId = -1;
+    private long lastPrune;
+
+    public ChangeLog(DatabaseManager databaseManager, UserCache cache, Logger logger, long retentionMillis) {
+        this.databaseManager = databaseManager;
+        this.cache = cache;
+        this.logger = logger;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Logs that the players were written. Runs inside the write's transaction.
+     */
+    void append(Connection connection, List<String> uuids) throws SQLException {
+        if (uuids.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try (PreparedStatement stmt = connection.prepareStatement(databaseManager.getDialect().insertChange())) {
+            for (String uuid : uuids) {
+                stmt.setString(1, serverId);
+                stmt.setLong(2, now);
+                stmt.setString(3, uuid);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!databaseManager.isConnected() || !databaseManager.getMigrator().isReady()) {
+            return;
+        }
+
+        try {
+            poll();
+            if (System.currentTimeMillis() - lastPrune > PRUNE_INTERVAL_MILLIS) {
+                prune();
+            }
+        } catch (SQLException e) {
+            if (databaseManager.getConfig().getBoolean("logging.debug", false)) {
+                logger.severe("Failed to read the database change log: " + e.getMessage());
+            }
+        }
+    }
+
+    private void poll() throws SQLException {
+        SqlDialect dialect = databaseManager.getDialect();
+        try (Connection connection = databaseManager.borrowConnection()) {
+            // Changes from before this server started are already reflected in anything it reads
+            if (lastId < 0) {
+                try (PreparedStatement stmt = connection.prepareStatement(dialect.selectLastChangeId());
+                     ResultSet rs = stmt.executeQuery()) {
+                    lastId = rs.next() ? rs.getLong("id") : 0;
+                }
+                previousLastId = lastId;
+                return;
+            }
+
+            long after = previousLastId;
+            long highest = lastId;
+            int dropped = 0;
+            try (PreparedStatement stmt = connection.prepareStatement(dialect.selectChangesAfter())) {
+                int read;
+                do {
+                    read = 0;
+                    stmt.setLong(1, after);
+                    stmt.setInt(2, PAGE_SIZE);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            read++;
+                            after = rs.getLong("id");
+                            highest = Math.max(highest, after);
+                            if (!serverId.equals(rs.getString("server_id"))
+                                    && cache.invalidate(rs.getString("uuid"), rs.getLong("version"))) {
+                                dropped++;
+                            }
+                        }
+                    }
+                } while (read == PAGE_SIZE);
+            }
+
+            previousLastId = lastId;
+            lastId = highest;
+            if (dropped > 0 && databaseManager.getConfig().getBoolean("logging.debug", false)) {
+                logger.info("Dropped " + dropped + " cached players changed by other servers.");
+            }
+        }
+    }
+
+    private void prune() throws SQLException {
+        lastPrune = System.currentTimeMillis();
+        long before = lastPrune - retentionMillis;
+        databaseManager.write(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(databaseManager.getDialect().deleteChangesBefore())) {
+                stmt.setLong(1, before);
+                return stmt.executeUpdate();
+            }
+        });
+    }
+
+    public String getServerId() {
+        return serverId;
+    }
+}
@@ -1,29 +1,47 @@
 // DatabaseManager.java
 package com.whiteiverson.minecraft.playtime_plugin.Database;
 
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.Metrics;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 
 import java.io.File;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import org.bukkit.Bukkit;
 import org.bukkit.configuration.file.FileConfiguration;
 
 public class DatabaseManager {
     private HikariDataSource dataSource;
-    private Connection connection;
     private final FileConfiguration config;
     private final Logger logger;
     private final File dataFolder;
+    private final Metrics metrics;
     private String dbType;
+    private SqlDialect dialect;
+    private RewardBits rewardBits;
+    private SchemaMigrator migrator;
+    private SQLiteWriter sqliteWriter;
+    private UserCache userCache;
+    private ChangeLog changeLog;
 
-    public DatabaseManager(FileConfiguration config, Logger logger, File dataFolder) {
+    /**
+     * A unit of database work run on a connection it is given.
+     */
+    public interface Work<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    public DatabaseManager(FileConfiguration config, Logger logger, File dataFolder, Metrics metrics) {
         this.config = config;
         this.logger = logger;
         this.dataFolder = dataFolder;
+        this.metrics = metrics;
     }
 
     public void connect() throws SQLException {
@@ -33,6 +51,7 @@ public class DatabaseManager {
         }
 
         dbType = config.getString("database.type", "MySQL").toLowerCase();
+        dialect = SqlDialect.forType(dbType);
 
         try {
             if ("mysql".equals(dbType)) {
@@ -57,21 +76,28 @@ public class DatabaseManager {
 
                 String url = "jdbc:mysql://" + host + ":" + port + "/" + dbName
                         + "?autoReconnect=" + config.getBoolean("database.database_options.auto_reconnect")
-                        + "&connectTimeout=" + (config.getInt("database.database_options.connection_timeout") * 1000);
+                        + "&connectTimeout=" + (config.getInt("database.database_options.connection_timeout") * 1000)
+                        + "&rewriteBatchedStatements=true"; // Send batched autosave upserts as multi-row statements
                 
                 // Create HikariCP connection pool
                 HikariConfig hikariConfig = new HikariConfig();
                 hikariConfig.setJdbcUrl(url);
                 hikariConfig.setUsername(user);
                 hikariConfig.setPassword(pass);
-                hikariConfig.setMaximumPoolSize(10);
-                hikariConfig.setMinimumIdle(2);
+                hikariConfig.setPoolName("PlayTime-MySQL");
+                hikariConfig.setMaximumPoolSize(config.getInt("database.pool.maximum_pool_size", 10));
+                hikariConfig.setMinimumIdle(config.getInt("database.pool.minimum_idle", 2));
                 hikariConfig.setConnectionTimeout(config.getInt("database.database_options.connection_timeout") * 1000L);
                 hikariConfig.setIdleTimeout(600000); // 10 minutes
                 hikariConfig.setMaxLifetime(1800000); // 30 minutes
+
+                // Let the driver keep parsed statements per connection instead of re-preparing them on every call
+                hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
+                hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
+                hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+                hikariConfig.addDataSourceProperty("useServerPrepStmts", "true");
                 
                 dataSource = new HikariDataSource(hikariConfig);
-                connection = dataSource.getConnection();
 
             } else if ("sqlite".equals(dbType)) {
                 // Check if SQLite driver is available
@@ -95,96 +121,237 @@ public class DatabaseManager {
                 // Create HikariCP connection pool for SQLite
                 HikariConfig hikariConfig = new HikariConfig();
                 hikariConfig.setJdbcUrl(url);
-                hikariConfig.setMaximumPoolSize(5); // SQLite handles fewer concurrent connections
-                hikariConfig.setMinimumIdle(1);
+                hikariConfig.setPoolName("PlayTime-SQLite");
+                // SQLite handles fewer concurrent connections, so its pool is never larger than 5. It needs at least 2,
+                // as the writer thread borrows one while a caller may hold another
+                hikariConfig.setMaximumPoolSize(Math.max(2, Math.min(config.getInt("database.pool.maximum_pool_size", 5), 5)));
+                hikariConfig.setMinimumIdle(config.getInt("database.pool.minimum_idle", 1));
+
+                // The driver applies these pragmas to every connection it opens
+                if (config.getBoolean("database.sqlite.wal", true)) {
+                    // Readers no longer block the writer, and a commit appends to the log instead of syncing the file
+                    hikariConfig.addDataSourceProperty("journal_mode", "WAL");
+                    hikariConfig.addDataSourceProperty("synchronous", "NORMAL");
+                }
+                // A negative cache size is in KiB rather than pages
+                hikariConfig.addDataSourceProperty("cache_size", String.valueOf(-1024L * config.getInt("database.sqlite.cache_size_mb", 16)));
+                hikariConfig.addDataSourceProperty("mmap_size", String.valueOf(1024L * 1024L * config.getInt("database.sqlite.mmap_size_mb", 64)));
+                hikariConfig.addDataSourceProperty("temp_store", "MEMORY");
+                hikariConfig.addDataSourceProperty("busy_timeout", "5000");
                 
                 dataSource = new HikariDataSource(hikariConfig);
-                connection = dataSource.getConnection();
+
+                // One thread makes every write, so they are grouped into shared commits instead of fighting for the lock
+                sqliteWriter = new SQLiteWriter(this, logger, config.getInt("database.sqlite.write_group_size", 256));
+                sqliteWriter.start();
 
                 logger.info("SQLite database location: " + dbFile.getAbsolutePath());
             }
 
-            logger.info("Database connected successfully.");
-            createTables();
+            // Borrowing here proves the pool can reach the database; the schema is updated later, off the main thread
+            try (Connection connection = borrowConnection()) {
+                logger.info("Database connected successfully (" + connection.getMetaData().getDatabaseProductVersion() + ").");
+            }
+            rewardBits = new RewardBits(this);
+            migrator = new SchemaMigrator(this, logger);
+
+            // Reads are only cached when other servers can say which players they changed
+            if (config.getBoolean("database.change_log.enabled", true)) {
+                userCache = new UserCache(1024L * config.getLong("cache.max-size", 4096),
+                        TimeUnit.SECONDS.toMillis(config.getLong("cache.expire-after", 600)));
+                changeLog = new ChangeLog(this, userCache, logger,
+                        TimeUnit.HOURS.toMillis(config.getLong("database.change_log.retention_hours", 24)));
+            }
         } catch (SQLException e) {
             logger.severe("Could not connect to the database: " + e.getMessage());
+            close();
             throw e;
         }
     }
 
-    private void createTables() throws SQLException {
-        if (connection == null || connection.isClosed()) {
-            return;
+    static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), null, table, new String[]{"TABLE"})) {
+            return rs.next();
         }
+    }
 
-        try (Statement stmt = connection.createStatement()) {
-            // Create Users table
-            if ("mysql".equals(dbType)) {
-                stmt.executeUpdate(
-                        "CREATE TABLE IF NOT EXISTS PlayTime_Users (" +
-                                "uuid VARCHAR(36) PRIMARY KEY," +
-                                "username VARCHAR(16) NOT NULL," +
-                                "joined DATE NOT NULL," +
-                                "playtime DOUBLE NOT NULL DEFAULT 0," +
-                                "afk_time DOUBLE NOT NULL DEFAULT 0" +
-                                ")"
-                );
-
-                // Create Rewards table
-                stmt.executeUpdate(
-                        "CREATE TABLE IF NOT EXISTS PlayTime_Rewards (" +
-                                "id INT AUTO_INCREMENT PRIMARY KEY," +
-                                "uuid VARCHAR(36) NOT NULL," +
-                                "reward_name VARCHAR(255) NOT NULL," +
-                                "claimed BOOLEAN NOT NULL DEFAULT FALSE," +
-                                "UNIQUE KEY unique_reward (uuid, reward_name)," +
-                                "FOREIGN KEY (uuid) REFERENCES PlayTime_Users(uuid) ON DELETE CASCADE" +
-                                ")"
-                );
-            } else if ("sqlite".equals(dbType)) {
-                stmt.executeUpdate(
-                        "CREATE TABLE IF NOT EXISTS PlayTime_Users (" +
-                                "uuid TEXT PRIMARY KEY," +
-                                "username TEXT NOT NULL," +
-                                "joined TEXT NOT NULL," +
-                                "playtime REAL NOT NULL DEFAULT 0," +
-                                "afk_time REAL NOT NULL DEFAULT 0" +
-                                ")"
-                );
-
-                stmt.executeUpdate(
-                        "CREATE TABLE IF NOT EXISTS PlayTime_Rewards (" +
-                                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                                "uuid TEXT NOT NULL," +
-                                "reward_name TEXT NOT NULL," +
-                                "claimed INTEGER NOT NULL DEFAULT 0," +
-                                "UNIQUE(uuid, reward_name)," +
-                                "FOREIGN KEY (uuid) REFERENCES PlayTime_Users(uuid) ON DELETE CASCADE" +
-                                ")"
-                );
-            }
+    static boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getColumns(connection.getCatalog(), null, table, column)) {
+            return rs.next();
+        }
+    }
 
-            logger.info("Database tables created successfully.");
+    static boolean indexExists(Connection connection, String table, String index) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, table, false, true)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 
+    /**
+     * @return Whether play time is written as the time gained since the last write ({@code database.write_mode:
+     * delta}), so several servers can share the database without overwriting each other.
+     */
+    public boolean isDeltaWrites() {
+        return "delta".equalsIgnoreCase(config.getString("database.write_mode", "absolute"));
+    }
+
     public boolean isEnabled() {
         return config.getBoolean("database.enabled", false);
     }
 
-    public Connection getConnection() {
-        return connection;
+    /**
+     * @return Whether the connection pool is open.
+     */
+    public boolean isConnected() {
+        return dataSource != null && !dataSource.isClosed();
     }
 
-    public void close() {
+    /**
+     * @return The SQL dialect of the connected database, or null if not connected.
+     */
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    public RewardBits getRewardBits() {
+        return rewardBits;
+    }
+
+    /**
+     * Checks that the rewards which may be claimed all fit in the {@code claimed_rewards} mask, together with
+     * those already stored. Called after connecting, so too many rewards are refused before any player is saved.
+     *
+     * @param rewardNames The names of the configured rewards.
+     */
+    public void checkRewardCapacity(Collection<String> rewardNames) throws SQLException {
+        try (Connection connection = borrowConnection()) {
+            if (tableExists(connection, "PlayTime_Reward_Bits")) {
+                rewardBits.load(connection);
+            }
+        }
+        rewardBits.checkCapacity(rewardNames);
+    }
+
+    /**
+     * @return The schema migrator, to be run once on a background thread after connecting.
+     */
+    public SchemaMigrator getMigrator() {
+        return migrator;
+    }
+
+    /**
+     * @return The cache of player rows, or null if {@code database.change_log} is disabled.
+     */
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
+    /**
+     * @return The change log to poll, or null if {@code database.change_log} is disabled.
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * @return The migration of tables from before schema v2, or null if there are none.
+     */
+    public SchemaV2Migration getMigration() {
+        return migrator == null ? null : migrator.getBackfill(SchemaV2Migration.class);
+    }
+
+    /**
+     * Waits, up to {@code database.migration.ready_timeout} seconds, until the schema is up to date. The server
+     * thread is never made to wait: it fails straight away, and callers fall back to cached or empty data.
+     */
+    public void awaitReady() throws SQLException {
+        if (migrator == null) {
+            throw new SQLException("Database is not connected");
+        }
+        long timeoutMillis = Bukkit.isPrimaryThread() ? 0 : config.getInt("database.migration.ready_timeout", 30) * 1000L;
+        migrator.awaitReady(timeoutMillis);
+    }
+
+    Logger getLogger() {
+        return logger;
+    }
+
+    FileConfiguration getConfig() {
+        return config;
+    }
+
+    /**
+     * Borrows a connection from the pool for one unit of work. The caller must close it to return it to the pool,
+     * so a connection that was dropped is replaced by the pool rather than reused.
+     */
+    public Connection borrowConnection() throws SQLException {
+        if (dataSource == null) {
+            throw new SQLException("Database connection pool is not initialised");
+        }
+
+        long start = System.nanoTime();
         try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
+            return dataSource.getConnection();
+        } finally {
+            metrics.record("db.acquire", start);
+        }
+    }
+
+    /**
+     * Runs the work in a transaction and commits it. On SQLite the work runs on the writer thread, possibly
+     * sharing its commit with other writes; elsewhere it runs on a borrowed connection on the calling thread.
+     * The work must not call {@code write} itself, nor commit, roll back or change auto-commit.
+     *
+     * @param work The write to run.
+     * @return What the work returned.
+     */
+    public <T> T write(Work<T> work) throws SQLException {
+        if (sqliteWriter != null) {
+            return sqliteWriter.write(work);
+        }
+
+        try (Connection connection = borrowConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
-        } catch (SQLException e) {
-            logger.severe("Error closing the database connection: " + e.getMessage());
         }
-        
+    }
+
+    /**
+     * @return The SQLite writer thread, or null if the database is not SQLite.
+     */
+    public SQLiteWriter getSQLiteWriter() {
+        return sqliteWriter;
+    }
+
+    /**
+     * @return The live statistics of the connection pool, or null if not connected.
+     */
+    public HikariPoolMXBean getPoolStats() {
+        return isConnected() ? dataSource.getHikariPoolMXBean() : null;
+    }
+
+    public void close() {
+        if (migrator != null) {
+            migrator.stop();
+        }
+        if (sqliteWriter != null) {
+            sqliteWriter.shutdown(config.getInt("storage.shutdown-timeout", 10) * 1000L);
+        }
+
         try {
             if (dataSource != null && !dataSource.isClosed()) {
                 dataSource.close();
@@ -0,0 +1,78 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MySqlDialect extends SqlDialect {
+
+    @Override
+    public String getName() {
+        return "MySQL";
+    }
+
+    @Override
+    protected List<String> playersTables() {
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS PlayTime_Players (" +
+                        "uuid VARCHAR(36) PRIMARY KEY," +
+                        "username VARCHAR(16) NOT NULL," +
+                        "joined_day INT NULL," +
+                        "playtime_ms BIGINT NOT NULL DEFAULT 0," +
+                        "afk_ms BIGINT NOT NULL DEFAULT 0," +
+                        "claimed_rewards BIGINT NOT NULL DEFAULT 0," +
+                        "INDEX idx_players_playtime (playtime_ms)" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS PlayTime_Reward_Bits (" +
+                        "bit_index INT PRIMARY KEY," +
+                        "reward_name VARCHAR(255) NOT NULL," +
+                        "UNIQUE KEY unique_reward_name (reward_name)" +
+                        ")"
+        );
+    }
+
+    @Override
+    protected List<String> changesTable() {
+        return Collections.singletonList(
+                "CREATE TABLE IF NOT EXISTS PlayTime_Changes (" +
+                        "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                        "uuid VARCHAR(36) NOT NULL," +
+                        "version BIGINT NOT NULL," +
+                        "server_id VARCHAR(36) NOT NULL," +
+                        "changed_at BIGINT NOT NULL," +
+                        "INDEX idx_changes_changed_at (changed_at)" +
+                        ")"
+        );
+    }
+
+    @Override
+    protected List<String> leaderboardIndex() {
+        // One statement, so the old index is never dropped without the new one in place
+        return Collections.singletonList(
+                "ALTER TABLE PlayTime_Players ADD INDEX idx_players_leaderboard (playtime_ms, uuid, username), " +
+                        "DROP INDEX idx_players_playtime"
+        );
+    }
+
+    @Override
+    public String upsertUser() {
+        return "INSERT INTO PlayTime_Players (uuid, username, joined_day, playtime_ms, afk_ms, claimed_rewards) " +
+                "VALUES (?, ?, ?, ?, ?, ?) " +
+                "ON DUPLICATE KEY UPDATE username = ?, playtime_ms = ?, afk_ms = ?, " +
+                "claimed_rewards = (claimed_rewards & ?) | ?, version = version + 1";
+    }
+
+    @Override
+    public String importPlaytime() {
+        return "INSERT INTO PlayTime_Players (uuid, username, joined_day, playtime_ms, afk_ms, claimed_rewards) " +
+                "VALUES (?, ?, ?, ?, 0, 0) " +
+                "ON DUPLICATE KEY UPDATE version = IF(playtime_ms = 0, version + 1, version), " +
+                "playtime_ms = IF(playtime_ms = 0, VALUES(playtime_ms), playtime_ms)";
+    }
+
+    @Override
+    public String insertUserIfAbsent() {
+        return "INSERT IGNORE INTO PlayTime_Players (uuid, username, joined_day, playtime_ms, afk_ms, claimed_rewards) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+    }
+}
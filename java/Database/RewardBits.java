@@ -0,0 +1,132 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RewardBits maps reward names to the bits of the {@code claimed_rewards} bitmask.
+ * <p>
+ * The mapping lives in {@code PlayTime_Reward_Bits} so every server sharing the database agrees on it, and is
+ * cached here once read. A bit is given to a reward the first time it is stored and never changes after.
+ * The mask has room for {@link #MAX_REWARDS} names, which {@link #checkCapacity(Collection)} checks up front so
+ * that saving a player never fails for lack of a bit.
+ */
+public class RewardBits {
+
+    // The sign bit is left unused so masks stay positive in every database
+    public static final int MAX_REWARDS = Long.SIZE - 1;
+
+    private final DatabaseManager databaseManager;
+    private final Map<String, Integer> bits = new ConcurrentHashMap<>();
+    private final Map<Integer, String> names = new ConcurrentHashMap<>();
+
+    public RewardBits(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * @param rewardName The name of the reward.
+     * @return The mask with only the reward's bit set, giving the reward a bit if it has none yet.
+     */
+    public long maskOf(String rewardName) throws SQLException {
+        Integer bit = bits.get(rewardName);
+        if (bit == null) {
+            bit = assign(rewardName);
+        }
+        return 1L << bit;
+    }
+
+    /**
+     * @param claimed A {@code claimed_rewards} bitmask.
+     * @return Whether each known reward is claimed.
+     */
+    public Map<String, Boolean> decode(long claimed) throws SQLException {
+        // A bit this server has not seen was given out by another server
+        if ((claimed >>> names.size()) != 0) {
+            try (Connection connection = databaseManager.borrowConnection()) {
+                load(connection);
+            }
+        }
+
+        Map<String, Boolean> rewards = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : names.entrySet()) {
+            rewards.put(entry.getValue(), (claimed & (1L << entry.getKey())) != 0);
+        }
+        return rewards;
+    }
+
+    /**
+     * Checks, against the mapping last read, that every one of the given rewards has or can be given a bit.
+     *
+     * @param rewardNames The names of the rewards that may be claimed.
+     * @throws SQLException if they would not all fit in the mask.
+     */
+    public void checkCapacity(Collection<String> rewardNames) throws SQLException {
+        Set<String> all = new HashSet<>(bits.keySet());
+        all.addAll(rewardNames);
+        if (all.size() > MAX_REWARDS) {
+            throw new SQLException(all.size() + " different rewards are configured or already stored, but the database can only store "
+                    + MAX_REWARDS + ". Remove rewards from rewards.yml to use database storage");
+        }
+    }
+
+    /**
+     * Reads the mapping from the database, replacing what is cached.
+     */
+    public synchronized void load(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(databaseManager.getDialect().selectRewardBits());
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                int bit = rs.getInt("bit_index");
+                String name = rs.getString("reward_name");
+                bits.put(name, bit);
+                names.put(bit, name);
+            }
+        }
+    }
+
+    private synchronized int assign(String rewardName) throws SQLException {
+        try (Connection connection = databaseManager.borrowConnection()) {
+            load(connection);
+            Integer bit = bits.get(rewardName);
+            if (bit != null) {
+                return bit;
+            }
+
+            int next = names.size();
+            if (next >= MAX_REWARDS) {
+                throw new SQLException("Cannot store more than " + MAX_REWARDS + " different rewards");
+            }
+
+            try {
+                databaseManager.write(writer -> {
+                    try (PreparedStatement stmt = writer.prepareStatement(databaseManager.getDialect().insertRewardBit())) {
+                        stmt.setInt(1, next);
+                        stmt.setString(2, rewardName);
+                        return stmt.executeUpdate();
+                    }
+                });
+            } catch (SQLException e) {
+                // Another server may have taken the bit, or named this reward, first
+                load(connection);
+                bit = bits.get(rewardName);
+                if (bit != null) {
+                    return bit;
+                }
+                throw e;
+            }
+
+            bits.put(rewardName, next);
+            names.put(next, rewardName);
+            return next;
+        }
+    }
+}
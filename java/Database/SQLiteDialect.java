@@ -0,0 +1,82 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+public class SQLiteDialect extends SqlDialect {
+
+    @Override
+    public String getName() {
+        return "SQLite";
+    }
+
+    @Override
+    protected List<String> playersTables() {
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS PlayTime_Players (" +
+                        "uuid TEXT PRIMARY KEY," +
+                        "username TEXT NOT NULL," +
+                        "joined_day INTEGER," +
+                        "playtime_ms INTEGER NOT NULL DEFAULT 0," +
+                        "afk_ms INTEGER NOT NULL DEFAULT 0," +
+                        "claimed_rewards INTEGER NOT NULL DEFAULT 0" +
+                        ")",
+                "CREATE INDEX IF NOT EXISTS idx_players_playtime ON PlayTime_Players (playtime_ms)",
+                "CREATE TABLE IF NOT EXISTS PlayTime_Reward_Bits (" +
+                        "bit_index INTEGER PRIMARY KEY," +
+                        "reward_name TEXT NOT NULL UNIQUE" +
+                        ")"
+        );
+    }
+
+    @Override
+    protected List<String> changesTable() {
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS PlayTime_Changes (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        "uuid TEXT NOT NULL," +
+                        "version INTEGER NOT NULL," +
+                        "server_id TEXT NOT NULL," +
+                        "changed_at INTEGER NOT NULL" +
+                        ")",
+                "CREATE INDEX IF NOT EXISTS idx_changes_changed_at ON PlayTime_Changes (changed_at)"
+        );
+    }
+
+    @Override
+    protected List<String> leaderboardIndex() {
+        return Arrays.asList(
+                "CREATE INDEX IF NOT EXISTS idx_players_leaderboard ON PlayTime_Players (playtime_ms, uuid, username)",
+                "DROP INDEX IF EXISTS idx_players_playtime"
+        );
+    }
+
+    @Override
+    public String upsertUser() {
+        return "INSERT INTO PlayTime_Players (uuid, username, joined_day, playtime_ms, afk_ms, claimed_rewards) " +
+                "VALUES (?, ?, ?, ?, ?, ?) " +
+                "ON CONFLICT(uuid) DO UPDATE SET username = ?, playtime_ms = ?, afk_ms = ?, " +
+                "claimed_rewards = (claimed_rewards & ?) | ?, version = version + 1";
+    }
+
+    @Override
+    public String importPlaytime() {
+        return "INSERT INTO PlayTime_Players (uuid, username, joined_day, playtime_ms, afk_ms, claimed_rewards) " +
+                "VALUES (?, ?, ?, ?, 0, 0) " +
+                "ON CONFLICT(uuid) DO UPDATE SET playtime_ms = excluded.playtime_ms, version = version + 1 WHERE PlayTime_Players.playtime_ms = 0";
+    }
+
+    @Override
+    public String insertUserIfAbsent() {
+        return "INSERT OR IGNORE INTO PlayTime_Players (uuid, username, joined_day, playtime_ms, afk_ms, claimed_rewards) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+    }
+
+    // Booleans were stored as 0 or 1
+    @Override
+    public boolean getLegacyClaimed(ResultSet rs, String column) throws SQLException {
+        return rs.getInt(column) == 1;
+    }
+}
@@ -0,0 +1,202 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * SQLiteWriter runs every write to an SQLite database on one thread, so writers never wait on each other for the
+ * database lock while reads go on concurrently through the pool.
+ * <p>
+ * Writes that arrive while a commit is in progress are grouped: the thread takes everything waiting, up to
+ * {@code database.sqlite.write_group_size}, runs each in its own savepoint and commits once, so the group shares
+ * a single commit. A write that fails is rolled back to its savepoint without affecting the others. Callers block
+ * until their group is committed and see their own result or exception.
+ */
+public class SQLiteWriter {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final DatabaseManager databaseManager;
+    private final Logger logger;
+    private final int groupSize;
+    private final BlockingQueue<Request<?>> queue = new LinkedBlockingQueue<>();
+    private volatile boolean running;
+    private Thread worker;
+
+    // Metrics
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+
+    public SQLiteWriter(DatabaseManager databaseManager, Logger logger, int groupSize) {
+        this.databaseManager = databaseManager;
+        this.logger = logger;
+        this.groupSize = Math.max(1, groupSize);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        worker = new Thread(this::run, "PlayTime-SQLite-Writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Runs the work on the writer thread inside a transaction and waits for it to be committed.
+     *
+     * @param work The write to run.
+     * @return What the work returned.
+     */
+    public <T> T write(DatabaseManager.Work<T> work) throws SQLException {
+        if (Thread.currentThread() == worker) {
+            throw new SQLException("A write cannot be submitted from inside another write");
+        }
+        Request<T> request = new Request<>(work);
+        synchronized (this) {
+            if (!running) {
+                throw new SQLException("The SQLite writer is not running");
+            }
+            queue.add(request);
+        }
+        try {
+            return request.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for an SQLite write", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    private void run() {
+        List<Request<?>> group = new ArrayList<>(groupSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Request<?> first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                group.add(first);
+                queue.drainTo(group, groupSize - 1);
+                commit(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                group.clear();
+            }
+        }
+
+        // Anything still queued after an interrupt is failed rather than left waiting forever
+        for (Request<?> request; (request = queue.poll()) != null; ) {
+            request.result.completeExceptionally(new SQLException("The SQLite writer has stopped"));
+        }
+    }
+
+    private void commit(List<Request<?>> group) {
+        List<Object> results = new ArrayList<>(group.size());
+        try (Connection connection = databaseManager.borrowConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (Request<?> request : group) {
+                    Savepoint savepoint = connection.setSavepoint();
+                    try {
+                        results.add(request.work.run(connection));
+                        connection.releaseSavepoint(savepoint);
+                    } catch (SQLException | RuntimeException e) {
+                        connection.rollback(savepoint);
+                        results.add(e);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            for (Request<?> request : group) {
+                request.result.completeExceptionally(e);
+            }
+            return;
+        }
+
+        writes.addAndGet(group.size());
+        commits.incrementAndGet();
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).complete(results.get(i));
+        }
+    }
+
+    /**
+     * Stops taking writes and waits for the queued ones to be committed.
+     *
+     * @param timeoutMillis The longest to wait.
+     */
+    public void shutdown(long timeoutMillis) {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+
+        try {
+            worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            logger.warning("SQLite writer did not finish within " + timeoutMillis + "ms; " + queue.size() + " writes were dropped.");
+            worker.interrupt();
+        }
+    }
+
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private static class Request<T> {
+        private final DatabaseManager.Work<T> work;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Request(DatabaseManager.Work<T> work) {
+            this.work = work;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Object outcome) {
+            if (outcome instanceof Exception) {
+                result.completeExceptionally((Exception) outcome);
+            } else {
+                result.complete((T) outcome);
+            }
+        }
+    }
+}
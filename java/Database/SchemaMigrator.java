@@ -0,0 +1,242 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * SchemaMigrator brings the database schema up to date on a background thread, so startup does not wait for it.
+ * <p>
+ * Applied versions are recorded in {@code PlayTime_Schema_Version}. Each missing {@link SchemaStep} has its
+ * statements run in version order, and then the database is marked ready. Steps marked to run in the background,
+ * such as large index builds, run after that, followed by the backfills, one at a time, while players are served.
+ * A background step or backfill that does not finish is recorded as such and runs again on the next start.
+ * <p>
+ * Anything that reads or writes players calls {@link #awaitReady(long)} first, which only waits during the short
+ * schema phase.
+ */
+public class SchemaMigrator implements Runnable {
+
+    private final DatabaseManager databaseManager;
+    private final Logger logger;
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final List<SchemaStep.Backfill> backfills = new ArrayList<>();
+    private final List<SchemaStep> backgroundSteps = new ArrayList<>();
+    private volatile SQLException failure;
+    private volatile SchemaStep.Backfill running;
+    private volatile boolean stopped;
+
+    public SchemaMigrator(DatabaseManager databaseManager, Logger logger) {
+        this.databaseManager = databaseManager;
+        this.logger = logger;
+    }
+
+    @Override
+    public void run() {
+        Map<SchemaStep.Backfill, Integer> pending;
+        try {
+            pending = migrateSchema();
+        } catch (SQLException e) {
+            failure = e;
+            logger.severe("Could not update the database schema: " + e.getMessage());
+            return;
+        } finally {
+            ready.countDown();
+        }
+
+        for (SchemaStep step : backgroundSteps) {
+            if (stopped) {
+                return;
+            }
+            applyInBackground(step);
+        }
+
+        for (Map.Entry<SchemaStep.Backfill, Integer> backfill : pending.entrySet()) {
+            // Checked after publishing the backfill, so a concurrent stop() either stops it or is seen here
+            running = backfill.getKey();
+            if (stopped) {
+                return;
+            }
+            running.run();
+            running = null;
+
+            if (backfill.getKey().isComplete()) {
+                try (Connection connection = databaseManager.borrowConnection();
+                     PreparedStatement stmt = connection.prepareStatement(databaseManager.getDialect().markBackfilled())) {
+                    stmt.setInt(1, backfill.getValue());
+                    stmt.executeUpdate();
+                } catch (SQLException e) {
+                    logger.severe("Could not record the backfill of schema version " + backfill.getValue() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the missing schema steps and prepares the backfills still to run.
+     *
+     * @return The backfills to run, in version order, with the version each belongs to.
+     */
+    private Map<SchemaStep.Backfill, Integer> migrateSchema() throws SQLException {
+        SqlDialect dialect = databaseManager.getDialect();
+        Map<SchemaStep.Backfill, Integer> pending = new LinkedHashMap<>();
+
+        try (Connection connection = databaseManager.borrowConnection()) {
+            Map<Integer, Boolean> applied = new HashMap<>();
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate(dialect.createSchemaVersionTable());
+                try (ResultSet rs = stmt.executeQuery(dialect.selectSchemaVersions())) {
+                    while (rs.next()) {
+                        applied.put(rs.getInt("version"), rs.getInt("backfilled") == 1);
+                    }
+                }
+            }
+
+            int version = 0;
+            for (SchemaStep step : dialect.getSchemaSteps()) {
+                if (!applied.containsKey(step.getVersion()) && !step.isApplied(connection)) {
+                    if (step.isBackground()) {
+                        // Recorded once its statements have run, after the database is ready
+                        backgroundSteps.add(step);
+                        continue;
+                    }
+                    logger.info("Updating the database schema to version " + step.getVersion() + ": " + step.getDescription());
+                    try (Statement stmt = connection.createStatement()) {
+                        for (String sql : step.getStatements()) {
+                            stmt.executeUpdate(sql);
+                        }
+                    }
+                }
+
+                boolean backfilled = applied.getOrDefault(step.getVersion(), false);
+                if (!backfilled && step.getBackfill() != null) {
+                    SchemaStep.Backfill backfill = step.getBackfill().create(databaseManager, connection);
+                    if (backfill != null) {
+                        pending.put(backfill, step.getVersion());
+                        backfills.add(backfill);
+                    } else {
+                        backfilled = true;
+                    }
+                } else if (step.getBackfill() == null) {
+                    backfilled = true;
+                }
+
+                if (!applied.containsKey(step.getVersion())) {
+                    try (PreparedStatement stmt = connection.prepareStatement(dialect.insertSchemaVersion())) {
+                        stmt.setInt(1, step.getVersion());
+                        stmt.setString(2, step.getDescription());
+                        stmt.setLong(3, System.currentTimeMillis());
+                        stmt.setInt(4, backfilled ? 1 : 0);
+                        stmt.executeUpdate();
+                    }
+                } else if (backfilled && !applied.get(step.getVersion())) {
+                    try (PreparedStatement stmt = connection.prepareStatement(dialect.markBackfilled())) {
+                        stmt.setInt(1, step.getVersion());
+                        stmt.executeUpdate();
+                    }
+                }
+                version = step.getVersion();
+            }
+
+            // Reward names must be known before any data is copied or read
+            databaseManager.getRewardBits().load(connection);
+
+            int background = backgroundSteps.size() + pending.size();
+            logger.info("Database schema is at version " + version
+                    + (background == 0 ? "." : ", with " + background + " step(s) running in the background."));
+        }
+
+        return pending;
+    }
+
+    /**
+     * Runs the statements of a step that was left for after the database became ready, and records it.
+     * On failure it is left unrecorded, so it runs again on the next start.
+     */
+    private void applyInBackground(SchemaStep step) {
+        long started = System.currentTimeMillis();
+        logger.info("Updating the database schema to version " + step.getVersion() + " in the background: "
+                + step.getDescription());
+        SqlDialect dialect = databaseManager.getDialect();
+        try (Connection connection = databaseManager.borrowConnection()) {
+            try (Statement stmt = connection.createStatement()) {
+                for (String sql : step.getStatements()) {
+                    stmt.executeUpdate(sql);
+                }
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(dialect.insertSchemaVersion())) {
+                stmt.setInt(1, step.getVersion());
+                stmt.setString(2, step.getDescription());
+                stmt.setLong(3, System.currentTimeMillis());
+                stmt.setInt(4, 1);
+                stmt.executeUpdate();
+            }
+            logger.info("Database schema version " + step.getVersion() + " applied in "
+                    + (System.currentTimeMillis() - started) / 1000 + "s.");
+        } catch (SQLException e) {
+            logger.severe("Could not update the database schema to version " + step.getVersion() + ": "
+                    + e.getMessage() + ". It will be retried on the next start.");
+        }
+    }
+
+    /**
+     * Waits until the schema is up to date.
+     *
+     * @param timeoutMillis The longest to wait.
+     * @throws SQLException If the schema could not be updated, or was not ready in time.
+     */
+    public void awaitReady(long timeoutMillis) throws SQLException {
+        try {
+            if (!ready.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("The database schema is still being updated");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database schema", e);
+        }
+
+        if (failure != null) {
+            throw new SQLException("The database schema could not be updated: " + failure.getMessage(), failure);
+        }
+    }
+
+    public boolean isReady() {
+        return ready.getCount() == 0 && failure == null;
+    }
+
+    /**
+     * @return The backfill of the given type prepared at startup, or null if there is none.
+     */
+    public <T extends SchemaStep.Backfill> T getBackfill(Class<T> type) {
+        if (ready.getCount() != 0) {
+            return null;
+        }
+        for (SchemaStep.Backfill backfill : backfills) {
+            if (type.isInstance(backfill)) {
+                return type.cast(backfill);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the running backfill and any that have not started. They continue on the next start.
+     */
+    public void stop() {
+        stopped = true;
+        SchemaStep.Backfill backfill = running;
+        if (backfill != null) {
+            backfill.stop();
+        }
+    }
+}
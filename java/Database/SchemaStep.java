@@ -0,0 +1,111 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * SchemaStep is one version of the database schema: the statements that bring the schema up to it and,
+ * optionally, a backfill that moves existing data into the new shape afterwards.
+ * <p>
+ * The statements run before the database is used and should be quick and safe to run again, as a crash
+ * before the step is recorded repeats it. Statements that only speed queries up, such as a large index build,
+ * can instead be run in the background once the database is in use. Backfills run in the background while the
+ * plugin serves players, so they must work in small pieces and leave the data usable between them.
+ */
+public class SchemaStep {
+
+    /**
+     * Tells whether a step's statements already took effect, for statements that cannot safely run twice.
+     */
+    public interface AppliedCheck {
+        boolean isApplied(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Creates the backfill of a step, or returns null if there is no data to move.
+     */
+    public interface BackfillFactory {
+        Backfill create(DatabaseManager databaseManager, Connection connection) throws SQLException;
+    }
+
+    /**
+     * A chunked data copy that runs on a background thread after the schema is ready.
+     */
+    public interface Backfill extends Runnable {
+        /**
+         * @return Whether all data was moved. If not, the backfill runs again on the next start.
+         */
+        boolean isComplete();
+
+        /**
+         * Stops the backfill after the piece it is working on.
+         */
+        void stop();
+    }
+
+    private final int version;
+    private final String description;
+    private final List<String> statements;
+    private final AppliedCheck appliedCheck;
+    private final BackfillFactory backfill;
+    private boolean background;
+
+    public SchemaStep(int version, String description, List<String> statements, AppliedCheck appliedCheck,
+                      BackfillFactory backfill) {
+        this.version = version;
+        this.description = description;
+        this.statements = statements;
+        this.appliedCheck = appliedCheck;
+        this.backfill = backfill;
+    }
+
+    public SchemaStep(int version, String description, List<String> statements, BackfillFactory backfill) {
+        this(version, description, statements, null, backfill);
+    }
+
+    public SchemaStep(int version, String description, List<String> statements) {
+        this(version, description, statements, null);
+    }
+
+    /**
+     * Runs the statements after the database is ready instead of before. Only for statements the queries work
+     * without, as players are read and written while they run.
+     *
+     * @return This step.
+     */
+    public SchemaStep inBackground() {
+        this.background = true;
+        return this;
+    }
+
+    public boolean isBackground() {
+        return background;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return Whether the statements already took effect, e.g. after a crash before the step was recorded.
+     */
+    public boolean isApplied(Connection connection) throws SQLException {
+        return appliedCheck != null && appliedCheck.isApplied(connection);
+    }
+
+    /**
+     * @return The backfill factory, or null if the step only changes the schema.
+     */
+    public BackfillFactory getBackfill() {
+        return backfill;
+    }
+}
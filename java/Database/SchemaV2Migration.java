@@ -0,0 +1,323 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * SchemaV2Migration copies players from the v1 tables into {@code PlayTime_Players} while the server runs.
+ * <p>
+ * Players are copied in chunks of {@code database.migration.chunk_size}, one transaction each, in UUID order so
+ * the walk can pick up where it left off. A player that is read or written before their chunk is reached is
+ * copied on the spot by {@link #migrate(Collection)}, so from then on the v2 row is the only one that
+ * changes. Copies never overwrite an existing v2 row. Once every chunk is copied the v1 tables are renamed with
+ * a {@code _v1} suffix and kept as a backup.
+ * <p>
+ * Reward names are given their bits before the copy starts, and only after the v1 rows are read and the
+ * connection returned, as giving a bit borrows a connection and writes.
+ */
+public class SchemaV2Migration implements SchemaStep.Backfill {
+
+    private static final long CHUNK_PAUSE_MILLIS = 50;
+
+    private final DatabaseManager databaseManager;
+    private final RewardBits rewardBits;
+    private final Logger logger;
+    private final int chunkSize;
+
+    // Held for reading while a player is copied on demand, and for writing while the v1 tables are renamed
+    private final ReadWriteLock legacyLock = new ReentrantReadWriteLock();
+    // The last UUID the background copy has written; every player up to it is in the v2 table
+    private volatile String copiedThrough = "";
+    // Players past that point copied on demand, dropped again as the background copy passes them
+    private final NavigableSet<String> copiedAhead = new ConcurrentSkipListSet<>();
+    private volatile boolean complete;
+    private volatile boolean stopped;
+
+    public SchemaV2Migration(DatabaseManager databaseManager, RewardBits rewardBits, Logger logger, int chunkSize) {
+        this.databaseManager = databaseManager;
+        this.rewardBits = rewardBits;
+        this.logger = logger;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * @return The migration of the v1 tables, or null if there are none.
+     */
+    public static SchemaV2Migration forLegacyTables(DatabaseManager databaseManager, Connection connection)
+            throws SQLException {
+        if (!DatabaseManager.tableExists(connection, SqlDialect.LEGACY_USERS)) {
+            return null;
+        }
+        return new SchemaV2Migration(databaseManager, databaseManager.getRewardBits(), databaseManager.getLogger(),
+                databaseManager.getConfig().getInt("database.migration.chunk_size", 500));
+    }
+
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Stops the background copy after the current chunk. What was copied is kept and the rest is copied on the
+     * next start.
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        long started = System.currentTimeMillis();
+        logger.info("Migrating player data to the v2 database schema in the background...");
+
+        try {
+            assignRewardBits();
+
+            String last = "";
+            int copied = 0;
+            while (!stopped) {
+                Map<String, LegacyUser> chunk;
+                try (Connection connection = databaseManager.borrowConnection()) {
+                    chunk = readChunk(connection, last);
+                    if (chunk.isEmpty()) {
+                        break;
+                    }
+                    String chunkEnd = chunk.keySet().stream().reduce((first, second) -> second).orElse(last);
+                    readChunkRewards(connection, last, chunkEnd, chunk);
+                    last = chunkEnd;
+                }
+                resolveRewards(chunk.values());
+                insert(chunk.values());
+                copiedThrough = last;
+                copiedAhead.headSet(last, true).clear();
+
+                copied += chunk.size();
+                Thread.sleep(CHUNK_PAUSE_MILLIS);
+            }
+
+            if (stopped) {
+                logger.info("Schema migration stopped after " + copied + " players. It will continue on the next start.");
+                return;
+            }
+
+            retireLegacyTables();
+            logger.info("Schema migration finished: " + copied + " players in "
+                    + (System.currentTimeMillis() - started) / 1000 + "s. The old tables were kept with a _v1 suffix.");
+        } catch (SQLException e) {
+            logger.severe("Schema migration failed: " + e.getMessage() + ". It will be retried on the next start.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copies the given players now if the background migration has not reached them yet.
+     */
+    public void migrate(Collection<String> uuids) throws SQLException {
+        if (!lockLegacyTables()) {
+            return;
+        }
+
+        try {
+            SqlDialect dialect = databaseManager.getDialect();
+            Map<String, LegacyUser> users = new LinkedHashMap<>();
+            try (Connection connection = databaseManager.borrowConnection()) {
+                String through = copiedThrough;
+                for (String uuid : uuids) {
+                    if (uuid.compareTo(through) <= 0 || copiedAhead.contains(uuid)) {
+                        continue;
+                    }
+
+                    Map<String, LegacyUser> user = new LinkedHashMap<>();
+                    try (PreparedStatement stmt = connection.prepareStatement(dialect.selectLegacyUser())) {
+                        stmt.setString(1, uuid);
+                        readUsers(stmt, user);
+                    }
+                    if (!user.isEmpty()) {
+                        try (PreparedStatement stmt = connection.prepareStatement(dialect.selectLegacyRewards())) {
+                            stmt.setString(1, uuid);
+                            readRewards(stmt, user);
+                        }
+                        users.putAll(user);
+                    }
+                }
+            }
+
+            if (!users.isEmpty()) {
+                resolveRewards(users.values());
+                insert(users.values());
+            }
+            for (String uuid : uuids) {
+                if (uuid.compareTo(copiedThrough) > 0) {
+                    copiedAhead.add(uuid);
+                }
+            }
+        } finally {
+            unlockLegacyTables();
+        }
+    }
+
+    /**
+     * Keeps the v1 tables from being renamed until {@link #unlockLegacyTables()}, if they are still in use.
+     *
+     * @return Whether the v1 tables are still in use. If false, nothing is locked.
+     */
+    public boolean lockLegacyTables() {
+        if (complete) {
+            return false;
+        }
+
+        legacyLock.readLock().lock();
+        if (complete) {
+            legacyLock.readLock().unlock();
+            return false;
+        }
+        return true;
+    }
+
+    public void unlockLegacyTables() {
+        legacyLock.readLock().unlock();
+    }
+
+    /**
+     * Gives every reward named in the v1 table its bit, so the copy itself only reads them from the cache.
+     */
+    private void assignRewardBits() throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Connection connection = databaseManager.borrowConnection();
+             PreparedStatement stmt = connection.prepareStatement(databaseManager.getDialect().selectLegacyRewardNames());
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                names.add(rs.getString("reward_name"));
+            }
+        }
+
+        rewardBits.checkCapacity(names);
+        for (String name : names) {
+            rewardBits.maskOf(name);
+        }
+    }
+
+    private Map<String, LegacyUser> readChunk(Connection connection, String after) throws SQLException {
+        Map<String, LegacyUser> users = new LinkedHashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(databaseManager.getDialect().selectLegacyUsers())) {
+            stmt.setString(1, after);
+            stmt.setInt(2, chunkSize);
+            readUsers(stmt, users);
+        }
+        return users;
+    }
+
+    private void readChunkRewards(Connection connection, String after, String last, Map<String, LegacyUser> users)
+            throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(databaseManager.getDialect().selectLegacyRewardsBetween())) {
+            stmt.setString(1, after);
+            stmt.setString(2, last);
+            readRewards(stmt, users);
+        }
+    }
+
+    private static void readUsers(PreparedStatement stmt, Map<String, LegacyUser> users) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String uuid = rs.getString("uuid");
+                users.put(uuid, new LegacyUser(uuid, rs.getString("username"),
+                        UserDataManager.toEpochDay(rs.getString("joined")),
+                        rs.getDouble("playtime"), rs.getDouble("afk_time")));
+            }
+        }
+    }
+
+    private void readRewards(PreparedStatement stmt, Map<String, LegacyUser> users) throws SQLException {
+        SqlDialect dialect = databaseManager.getDialect();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                LegacyUser user = users.get(rs.getString("uuid"));
+                if (user != null && dialect.getLegacyClaimed(rs, "claimed")) {
+                    user.claimedNames.add(rs.getString("reward_name"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns the claimed reward names into masks. Called with no connection held.
+     */
+    private void resolveRewards(Collection<LegacyUser> users) throws SQLException {
+        for (LegacyUser user : users) {
+            for (String name : user.claimedNames) {
+                user.claimedRewards |= rewardBits.maskOf(name);
+            }
+        }
+    }
+
+    private void insert(Collection<LegacyUser> users) throws SQLException {
+        databaseManager.write(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement(databaseManager.getDialect().insertUserIfAbsent())) {
+                for (LegacyUser user : users) {
+                    stmt.setString(1, user.uuid);
+                    stmt.setString(2, user.username);
+                    if (user.joinedDay == null) {
+                        stmt.setNull(3, Types.INTEGER);
+                    } else {
+                        stmt.setInt(3, user.joinedDay);
+                    }
+                    stmt.setLong(4, UserDataManager.toMillis(user.playtime));
+                    stmt.setLong(5, UserDataManager.toMillis(user.afkTime));
+                    stmt.setLong(6, user.claimedRewards);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    private void retireLegacyTables() throws SQLException {
+        legacyLock.writeLock().lock();
+        try (Connection connection = databaseManager.borrowConnection();
+             Statement stmt = connection.createStatement()) {
+            for (String sql : databaseManager.getDialect().retireLegacyTables()) {
+                stmt.executeUpdate(sql);
+                // Once the user table is gone the v1 tables can no longer be read, even if a later rename fails
+                complete = true;
+            }
+            copiedAhead.clear();
+        } finally {
+            legacyLock.writeLock().unlock();
+        }
+    }
+
+    private static class LegacyUser {
+        private final String uuid;
+        private final String username;
+        private final Integer joinedDay;
+        private final double playtime;
+        private final double afkTime;
+        private final List<String> claimedNames = new ArrayList<>();
+        private long claimedRewards;
+
+        private LegacyUser(String uuid, String username, Integer joinedDay, double playtime, double afkTime) {
+            this.uuid = uuid;
+            this.username = username;
+            this.joinedDay = joinedDay;
+            this.playtime = playtime;
+            this.afkTime = afkTime;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * SqlDialect holds the SQL of one database type, built once when the database connects.
+ * <p>
+ * Queries that are the same everywhere live here; dialects override the ones that differ, such as upserts
+ * and how booleans are stored. Further database types can be added with {@link #register(String, Supplier)}.
+ * <p>
+ * Players are stored in the v2 table {@code PlayTime_Players}: times in whole milliseconds, the join date as an
+ * epoch day and claimed rewards as a bitmask whose bits are named in {@code PlayTime_Reward_Bits}. The v1 tables
+ * {@code PlayTime_Users} and {@code PlayTime_Rewards} are only read while they are migrated.
+ */
+public abstract class SqlDialect {
+
+    public static final String LEGACY_USERS = "PlayTime_Users";
+    public static final String LEGACY_REWARDS = "PlayTime_Rewards";
+
+    private static final Map<String, Supplier<SqlDialect>> DIALECTS = new ConcurrentHashMap<>();
+
+    static {
+        register("mysql", MySqlDialect::new);
+        register("sqlite", SQLiteDialect::new);
+    }
+
+    /**
+     * Makes a dialect available under the given {@code database.type}.
+     */
+    public static void register(String type, Supplier<SqlDialect> dialect) {
+        DIALECTS.put(type.toLowerCase(Locale.ROOT), dialect);
+    }
+
+    /**
+     * @param type The configured {@code database.type}.
+     * @return The dialect for the type.
+     * @throws SQLException If no dialect is registered for the type.
+     */
+    public static SqlDialect forType(String type) throws SQLException {
+        Supplier<SqlDialect> dialect = DIALECTS.get(type.toLowerCase(Locale.ROOT));
+        if (dialect == null) {
+            throw new SQLException("Unsupported database type: " + type);
+        }
+        return dialect.get();
+    }
+
+    public abstract String getName();
+
+    /**
+     * @return Every version of the schema in order, each with this dialect's statements.
+     * New versions are added to the end and never change once released.
+     */
+    public List<SchemaStep> getSchemaSteps() {
+        return Arrays.asList(
+                new SchemaStep(2, "Players table with integer times, reward bitmask and playtime index",
+                        playersTables(), SchemaV2Migration::forLegacyTables),
+                new SchemaStep(3, "Row version for writes from several servers",
+                        Collections.singletonList(addVersionColumn()),
+                        connection -> DatabaseManager.columnExists(connection, "PlayTime_Players", "version"), null),
+                new SchemaStep(4, "Change log for cache invalidation across servers", changesTable()),
+                new SchemaStep(5, "Covering index for the paged leaderboard", leaderboardIndex(),
+                        connection -> DatabaseManager.indexExists(connection, "PlayTime_Players", "idx_players_leaderboard"), null)
+                        .inBackground()
+        );
+    }
+
+    // Schema v2: the tables and indexes that hold players, created if they do not exist
+    protected abstract List<String> playersTables();
+
+    // Schema v3: counts the writes to each player, so a server can tell the row changed since it read it
+    protected String addVersionColumn() {
+        return "ALTER TABLE PlayTime_Players ADD COLUMN version BIGINT NOT NULL DEFAULT 0";
+    }
+
+    // Schema v4: one row per player written, read by the other servers to drop their cached copy
+    protected abstract List<String> changesTable();
+
+    // Schema v5: an index holding everything a leaderboard page shows, replacing the play time index
+    protected abstract List<String> leaderboardIndex();
+
+    public String createSchemaVersionTable() {
+        return "CREATE TABLE IF NOT EXISTS PlayTime_Schema_Version (" +
+                "version INT PRIMARY KEY," +
+                "description VARCHAR(255) NOT NULL," +
+                "applied_at BIGINT NOT NULL," +
+                "backfilled INT NOT NULL DEFAULT 0" +
+                ")";
+    }
+
+    public String selectSchemaVersions() {
+        return "SELECT version, backfilled FROM PlayTime_Schema_Version";
+    }
+
+    // Parameters: version, description, applied_at, backfilled
+    public String insertSchemaVersion() {
+        return "INSERT INTO PlayTime_Schema_Version (version, description, applied_at, backfilled) VALUES (?, ?, ?, ?)";
+    }
+
+    // Parameters: version
+    public String markBackfilled() {
+        return "UPDATE PlayTime_Schema_Version SET backfilled = 1 WHERE version = ?";
+    }
+
+    // Parameters: uuid, username, joined_day, playtime_ms, afk_ms, claimed_rewards,
+    // then username, playtime_ms, afk_ms, the rewards to keep and the rewards to set for the update
+    public abstract String upsertUser();
+
+    // Parameters: uuid, username, joined_day, playtime_ms - only sets play time where none is recorded
+    public abstract String importPlaytime();
+
+    // Parameters: uuid, username, joined_day, playtime_ms, afk_ms, claimed_rewards - leaves an existing row alone
+    public abstract String insertUserIfAbsent();
+
+    // Parameters: the rewards to keep, the rewards to set, uuid
+    public String updateRewards() {
+        return "UPDATE PlayTime_Players SET claimed_rewards = (claimed_rewards & ?) | ?, version = version + 1 WHERE uuid = ?";
+    }
+
+    // Parameters: username, playtime_ms to add, afk_ms to add, the rewards to keep, the rewards to set, uuid
+    public String addUserTimes() {
+        return "UPDATE PlayTime_Players SET username = COALESCE(?, username), playtime_ms = playtime_ms + ?, " +
+                "afk_ms = afk_ms + ?, claimed_rewards = (claimed_rewards & ?) | ?, version = version + 1 WHERE uuid = ?";
+    }
+
+    // Parameters: username, playtime_ms, afk_ms, uuid, the version that was read
+    public String updateUserIfVersion() {
+        return "UPDATE PlayTime_Players SET username = ?, playtime_ms = ?, afk_ms = ?, version = version + 1 " +
+                "WHERE uuid = ? AND version = ?";
+    }
+
+    public String selectUser() {
+        return "SELECT username, joined_day, playtime_ms, afk_ms, claimed_rewards, version FROM PlayTime_Players WHERE uuid = ?";
+    }
+
+    // Parameters: server_id, changed_at, uuid - logs the version the write left the row at
+    public String insertChange() {
+        return "INSERT INTO PlayTime_Changes (uuid, version, server_id, changed_at) " +
+                "SELECT uuid, version, ?, ? FROM PlayTime_Players WHERE uuid = ?";
+    }
+
+    public String selectLastChangeId() {
+        return "SELECT MAX(id) AS id FROM PlayTime_Changes";
+    }
+
+    // Parameters: the id to read after, the most rows to read
+    public String selectChangesAfter() {
+        return "SELECT id, uuid, version, server_id FROM PlayTime_Changes WHERE id > ? ORDER BY id LIMIT ?";
+    }
+
+    // Parameters: the oldest changed_at to keep
+    public String deleteChangesBefore() {
+        return "DELETE FROM PlayTime_Changes WHERE changed_at < ?";
+    }
+
+    public String selectPlaytime() {
+        return "SELECT playtime_ms FROM PlayTime_Players WHERE uuid = ?";
+    }
+
+    public String selectAfkTime() {
+        return "SELECT afk_ms FROM PlayTime_Players WHERE uuid = ?";
+    }
+
+    public String selectRewards() {
+        return "SELECT claimed_rewards FROM PlayTime_Players WHERE uuid = ?";
+    }
+
+    // Walks the leaderboard index backwards instead of sorting the table
+    public String selectUuidsByPlaytime() {
+        return "SELECT uuid FROM PlayTime_Players WHERE playtime_ms > 0 ORDER BY playtime_ms DESC";
+    }
+
+    // Parameters: limit - read from idx_players_leaderboard alone, without sorting
+    public String selectLeaderboardPage() {
+        return "SELECT uuid, username, playtime_ms FROM PlayTime_Players WHERE playtime_ms > 0 " +
+                "ORDER BY playtime_ms DESC, uuid DESC LIMIT ?";
+    }
+
+    // Parameters: playtime_ms of the row to continue after (twice), its uuid, limit
+    public String selectLeaderboardPageAfter() {
+        return "SELECT uuid, username, playtime_ms FROM PlayTime_Players WHERE playtime_ms > 0 " +
+                "AND playtime_ms <= ? AND (playtime_ms < ? OR uuid < ?) " +
+                "ORDER BY playtime_ms DESC, uuid DESC LIMIT ?";
+    }
+
+    // Parameters: limit - the keys of the rows from the top, to find where pages end
+    public String selectLeaderboardKeys() {
+        return "SELECT uuid, playtime_ms FROM PlayTime_Players WHERE playtime_ms > 0 " +
+                "ORDER BY playtime_ms DESC, uuid DESC LIMIT ?";
+    }
+
+    // Parameters: playtime_ms of the row to continue after (twice), its uuid, limit
+    public String selectLeaderboardKeysAfter() {
+        return "SELECT uuid, playtime_ms FROM PlayTime_Players WHERE playtime_ms > 0 " +
+                "AND playtime_ms <= ? AND (playtime_ms < ? OR uuid < ?) " +
+                "ORDER BY playtime_ms DESC, uuid DESC LIMIT ?";
+    }
+
+    public String countLeaderboard() {
+        return "SELECT COUNT(*) AS players FROM PlayTime_Players WHERE playtime_ms > 0";
+    }
+
+    // Parameters: a player's playtime_ms (twice), their uuid - counts the players ranked above them from
+    // idx_players_leaderboard, scanning only the range above their play time
+    public String countLeaderboardAhead() {
+        return "SELECT COUNT(*) AS players FROM PlayTime_Players " +
+                "WHERE playtime_ms >= ? AND (playtime_ms > ? OR uuid > ?)";
+    }
+
+    // Parameters: the last uuid of the previous page, the page size
+    public String selectUsersAfter() {
+        return "SELECT uuid, username, joined_day, playtime_ms, afk_ms, claimed_rewards FROM PlayTime_Players " +
+                "WHERE uuid > ? ORDER BY uuid LIMIT ?";
+    }
+
+    public String selectRewardBits() {
+        return "SELECT bit_index, reward_name FROM PlayTime_Reward_Bits";
+    }
+
+    // Parameters: bit_index, reward_name
+    public String insertRewardBit() {
+        return "INSERT INTO PlayTime_Reward_Bits (bit_index, reward_name) VALUES (?, ?)";
+    }
+
+    // Parameters: the last uuid of the previous chunk, the chunk size
+    public String selectLegacyUsers() {
+        return "SELECT uuid, username, joined, playtime, afk_time FROM " + LEGACY_USERS
+                + " WHERE uuid > ? ORDER BY uuid LIMIT ?";
+    }
+
+    public String selectLegacyUser() {
+        return "SELECT uuid, username, joined, playtime, afk_time FROM " + LEGACY_USERS + " WHERE uuid = ?";
+    }
+
+    // Parameters: the last uuid of the previous chunk, the last uuid of this chunk
+    public String selectLegacyRewardsBetween() {
+        return "SELECT uuid, reward_name, claimed FROM " + LEGACY_REWARDS + " WHERE uuid > ? AND uuid <= ?";
+    }
+
+    public String selectLegacyRewards() {
+        return "SELECT uuid, reward_name, claimed FROM " + LEGACY_REWARDS + " WHERE uuid = ?";
+    }
+
+    public String selectLegacyRewardNames() {
+        return "SELECT DISTINCT reward_name FROM " + LEGACY_REWARDS;
+    }
+
+    // The leaderboard while the migration runs, taking players not copied yet from the v1 table
+    public String selectMigratingUuidsByPlaytime() {
+        return "SELECT uuid FROM (" +
+                "SELECT uuid, playtime_ms FROM PlayTime_Players " +
+                "UNION ALL " +
+                "SELECT l.uuid, l.playtime * 1000 AS playtime_ms FROM " + LEGACY_USERS + " l " +
+                "WHERE NOT EXISTS (SELECT 1 FROM PlayTime_Players p WHERE p.uuid = l.uuid)" +
+                ") merged WHERE playtime_ms > 0 ORDER BY playtime_ms DESC";
+    }
+
+    /**
+     * @return The statements that move the v1 tables aside once they are migrated, kept as a backup. The user
+     * table goes first, as it is the one whose presence starts a migration.
+     */
+    public List<String> retireLegacyTables() {
+        return Arrays.asList(
+                "ALTER TABLE " + LEGACY_USERS + " RENAME TO " + LEGACY_USERS + "_v1",
+                "ALTER TABLE " + LEGACY_REWARDS + " RENAME TO " + LEGACY_REWARDS + "_v1"
+        );
+    }
+
+    // How the v1 reward table stored whether a reward was claimed
+    public boolean getLegacyClaimed(ResultSet rs, String column) throws SQLException {
+        return rs.getBoolean(column);
+    }
+}
@@ -0,0 +1,149 @@
+package com.whiteiverson.minecraft.playtime_plugin.Database;
+
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.RecordCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * UserCache keeps player rows read from the database in memory, so repeated reads of the same player, the
+ * leaderboard and placeholders do not each go to SQL.
+ * <p>
+ * An entry is dropped when this server writes the player, and when the {@link ChangeLog} reports that another
+ * server wrote a newer version of the row. Every drop advances a generation counter; a read that started before
+ * a drop does not put its result in the cache, so a row read just before a write is never cached after it.
+ * <p>
+ * Rows are held in a {@link RecordCache}, so offline players are evicted by size and age while online players
+ * stay pinned.
+ */
+public class UserCache {
+
+    /**
+     * A player's row as it was read.
+     */
+    public static class CachedUser {
+        // Cached for players with no row, so unknown players are not looked up again and again
+        static final CachedUser MISSING = new CachedUser(null, null, 0, 0, 0, -1);
+
+        final String username;
+        final Integer joinedDay;
+        final long playtimeMs;
+        final long afkMs;
+        final long claimedRewards;
+        final long version;
+
+        CachedUser(String username, Integer joinedDay, long playtimeMs, long afkMs, long claimedRewards, long version) {
+            this.username = username;
+            this.joinedDay = joinedDay;
+            this.playtimeMs = playtimeMs;
+            this.afkMs = afkMs;
+            this.claimedRewards = claimedRewards;
+            this.version = version;
+        }
+
+        boolean isMissing() {
+            return this == MISSING;
+        }
+
+        // Object headers, the fields and the username's characters
+        int weight() {
+            return 96 + (username != null ? 40 + username.length() * 2 : 0);
+        }
+    }
+
+    private final RecordCache<String, CachedUser> users;
+    private volatile List<String> leaderboard;
+    private long generation;
+
+    /**
+     * @param maxBytes          Roughly how much memory the cached rows may take.
+     * @param expireAfterMillis How long a row is kept after it was read, or 0 to keep it until evicted.
+     */
+    public UserCache(long maxBytes, long expireAfterMillis) {
+        this.users = new RecordCache<>(maxBytes, expireAfterMillis, (uuid, user) -> 88 + user.weight());
+    }
+
+    /**
+     * Sets which players are never evicted, e.g. those online.
+     */
+    public void setPinned(Predicate<String> pinned) {
+        users.setPinned(pinned);
+    }
+
+    public CachedUser get(String uuid) {
+        return users.get(uuid);
+    }
+
+    /**
+     * @return The generation to hand to {@link #put} once the read started now has finished.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a row, unless something was dropped since the read of it started.
+     */
+    synchronized void put(String uuid, CachedUser user, long readGeneration) {
+        if (readGeneration == generation) {
+            users.put(uuid, user);
+        }
+    }
+
+    /**
+     * @return The UUIDs of players by play time, or null if it has to be read again.
+     */
+    public List<String> getLeaderboard() {
+        List<String> cached = leaderboard;
+        return cached == null ? null : new ArrayList<>(cached);
+    }
+
+    synchronized void putLeaderboard(List<String> uuids, long readGeneration) {
+        if (readGeneration == generation) {
+            leaderboard = new ArrayList<>(uuids);
+        }
+    }
+
+    /**
+     * Drops players this server has written, and the leaderboard they may have moved on.
+     */
+    public synchronized void invalidate(List<String> uuids) {
+        generation++;
+        for (String uuid : uuids) {
+            users.remove(uuid);
+        }
+        leaderboard = null;
+    }
+
+    /**
+     * Drops a player if another server wrote a newer version of them than the one cached.
+     *
+     * @return Whether anything was dropped.
+     */
+    synchronized boolean invalidate(String uuid, long version) {
+        CachedUser cached = users.peek(uuid);
+        if (cached != null && cached.version >= version) {
+            return false;
+        }
+
+        generation++;
+        users.remove(uuid);
+        leaderboard = null;
+        return true;
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    public RecordCache<String, CachedUser> getRecords() {
+        return users;
+    }
+
+    public synchronized void clear() {
+        generation++;
+        users.clear();
+        leaderboard = null;
+    }
+}
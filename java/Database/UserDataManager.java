@@ -1,152 +1,828 @@
 package com.whiteiverson.minecraft.playtime_plugin.Database;
 
 import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.whiteiverson.minecraft.playtime_plugin.LeaderboardIndex;
+
+import com.whiteiverson.minecraft.playtime_plugin.Storage.PlayerSnapshot;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.Metrics;
 
 @SuppressWarnings("SqlNoDataSourceInspection")
 public class UserDataManager {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+
+    // Every reward bit; the sign bit is never used
+    private static final long ALL_REWARDS = Long.MAX_VALUE;
+
     private final DatabaseManager databaseManager;
+    private final Metrics metrics;
+
+    // Where the last page read ended, as the key of its last row
+    private static class PageAnchor {
+        final long playtimeMs;
+        final String uuid;
 
-    public UserDataManager(DatabaseManager databaseManager) {
+        PageAnchor(long playtimeMs, String uuid) {
+            this.playtimeMs = playtimeMs;
+            this.uuid = uuid;
+        }
+    }
+
+    // The last row of each leaderboard page read, by page, to seek from instead of counting rows
+    private final ConcurrentSkipListMap<Integer, PageAnchor> pageAnchors = new ConcurrentSkipListMap<>();
+    private volatile int anchorPageSize;
+    private volatile int leaderboardCount = -1;
+    private volatile long leaderboardCountAt;
+
+    public UserDataManager(DatabaseManager databaseManager, Metrics metrics) {
         this.databaseManager = databaseManager;
+        this.metrics = metrics;
     }
 
     // Adds or updates a user by UUID
     public void saveUser(String uuid, String username, String joinedDate, double playtime, double afkTime) throws SQLException {
-        String query = "INSERT INTO PlayTime_Users (uuid, username, joined, playtime, afk_time) " +
-                "VALUES (?, ?, ?, ?, ?) " +
-                "ON DUPLICATE KEY UPDATE username = ?, playtime = ?, afk_time = ?";
-
-        // For SQLite, use different syntax
-        if (isSQLite()) {
-            query = "INSERT INTO PlayTime_Users (uuid, username, joined, playtime, afk_time) " +
-                    "VALUES (?, ?, ?, ?, ?) " +
-                    "ON CONFLICT(uuid) DO UPDATE SET username = ?, playtime = ?, afk_time = ?";
+        long start = System.nanoTime();
+        try {
+            write(Collections.singletonList(uuid), connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement(dialect().upsertUser())) {
+                    bindUser(stmt, uuid, username, joinedDate, playtime, afkTime, ALL_REWARDS, 0L);
+                    return stmt.executeUpdate();
+                }
+            });
+            // The play time it replaced is not known, so it may have moved either way past any page
+            pageAnchors.clear();
+        } finally {
+            metrics.record("storage.saveUser", start);
         }
+    }
 
-        try (PreparedStatement stmt = databaseManager.getConnection().prepareStatement(query)) {
-            stmt.setString(1, uuid);
-            stmt.setString(2, username);
-            stmt.setString(3, joinedDate);
-            stmt.setDouble(4, playtime);
-            stmt.setDouble(5, afkTime);
-
-            // Update values
-            stmt.setString(6, username);
-            stmt.setDouble(7, playtime);
-            stmt.setDouble(8, afkTime);
-
-            stmt.executeUpdate();
+    // Updates a user only if nobody has written them since their data was loaded at the given version
+    public boolean saveUserIfVersion(String uuid, String username, double playtime, double afkTime, long version) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            boolean saved = write(Collections.singletonList(uuid), connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement(dialect().updateUserIfVersion())) {
+                    stmt.setString(1, username);
+                    stmt.setLong(2, toMillis(playtime));
+                    stmt.setLong(3, toMillis(afkTime));
+                    stmt.setString(4, uuid);
+                    stmt.setLong(5, version);
+                    return stmt.executeUpdate() > 0;
+                }
+            });
+            if (saved) {
+                pageAnchors.clear();
+            }
+            return saved;
+        } finally {
+            metrics.record("storage.saveUserIfVersion", start);
         }
     }
 
     // Load user data
     public Map<String, Object> loadUser(String uuid) throws SQLException {
-        String query = "SELECT username, joined, playtime, afk_time FROM PlayTime_Users WHERE uuid = ?";
-        Map<String, Object> userData = new HashMap<>();
-
-        try (PreparedStatement stmt = databaseManager.getConnection().prepareStatement(query)) {
-            stmt.setString(1, uuid);
-            ResultSet rs = stmt.executeQuery();
+        long start = System.nanoTime();
+        try {
+            Map<String, Object> userData = new HashMap<>();
 
-            if (rs.next()) {
-                userData.put("username", rs.getString("username"));
-                userData.put("joined", rs.getString("joined"));
-                userData.put("playtime", rs.getDouble("playtime"));
-                userData.put("afk-time", rs.getDouble("afk_time"));
+            UserCache.CachedUser user = readUser(uuid);
+            if (!user.isMissing()) {
+                userData.put("username", user.username);
+                if (user.joinedDay != null) {
+                    userData.put("joined", fromEpochDay(user.joinedDay));
+                }
+                userData.put("playtime", fromMillis(user.playtimeMs));
+                userData.put("afk-time", fromMillis(user.afkMs));
+                userData.put("version", user.version);
             }
-        }
 
-        return userData;
+            return userData;
+        } finally {
+            metrics.record("storage.loadUser", start);
+        }
     }
 
     // Retrieves playtime using UUID
     public double getPlaytime(String uuid) throws SQLException {
-        String query = "SELECT playtime FROM PlayTime_Users WHERE uuid = ?";
-        try (PreparedStatement stmt = databaseManager.getConnection().prepareStatement(query)) {
-            stmt.setString(1, uuid);
-            ResultSet rs = stmt.executeQuery();
-            return rs.next() ? rs.getDouble("playtime") : 0.0;
+        long start = System.nanoTime();
+        if (databaseManager.getUserCache() != null) {
+            try {
+                return fromMillis(readUser(uuid).playtimeMs);
+            } finally {
+                metrics.record("storage.getPlaytime", start);
+            }
+        }
+        try (Connection connection = borrow(Collections.singletonList(uuid))) {
+            try (PreparedStatement stmt = connection.prepareStatement(dialect().selectPlaytime())) {
+                stmt.setString(1, uuid);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? fromMillis(rs.getLong("playtime_ms")) : 0.0;
+                }
+            }
+        } finally {
+            metrics.record("storage.getPlaytime", start);
         }
     }
 
     // Retrieves AFK time using UUID
     public double getAfkTime(String uuid) throws SQLException {
-        String query = "SELECT afk_time FROM PlayTime_Users WHERE uuid = ?";
-        try (PreparedStatement stmt = databaseManager.getConnection().prepareStatement(query)) {
-            stmt.setString(1, uuid);
-            ResultSet rs = stmt.executeQuery();
-            return rs.next() ? rs.getDouble("afk_time") : 0.0;
+        long start = System.nanoTime();
+        if (databaseManager.getUserCache() != null) {
+            try {
+                return fromMillis(readUser(uuid).afkMs);
+            } finally {
+                metrics.record("storage.getAfkTime", start);
+            }
+        }
+        try (Connection connection = borrow(Collections.singletonList(uuid))) {
+            try (PreparedStatement stmt = connection.prepareStatement(dialect().selectAfkTime())) {
+                stmt.setString(1, uuid);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? fromMillis(rs.getLong("afk_ms")) : 0.0;
+                }
+            }
+        } finally {
+            metrics.record("storage.getAfkTime", start);
         }
     }
 
     // Retrieves rewards based on UUID
     public Map<String, Boolean> getRewards(String uuid) throws SQLException {
-        String query = "SELECT reward_name, claimed FROM PlayTime_Rewards WHERE uuid = ?";
-        Map<String, Boolean> rewards = new HashMap<>();
-
-        try (PreparedStatement stmt = databaseManager.getConnection().prepareStatement(query)) {
-            stmt.setString(1, uuid);
-            ResultSet rs = stmt.executeQuery();
+        long start = System.nanoTime();
+        try {
+            Long claimed = null;
 
-            while (rs.next()) {
-                boolean claimed = isSQLite() ? rs.getInt("claimed") == 1 : rs.getBoolean("claimed");
-                rewards.put(rs.getString("reward_name"), claimed);
+            if (databaseManager.getUserCache() != null) {
+                UserCache.CachedUser user = readUser(uuid);
+                return user.isMissing() ? new HashMap<>() : databaseManager.getRewardBits().decode(user.claimedRewards);
+            }
+            try (Connection connection = borrow(Collections.singletonList(uuid))) {
+                try (PreparedStatement stmt = connection.prepareStatement(dialect().selectRewards())) {
+                    stmt.setString(1, uuid);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            claimed = rs.getLong("claimed_rewards");
+                        }
+                    }
+                }
             }
-        }
 
-        return rewards;
+            return claimed == null ? new HashMap<>() : databaseManager.getRewardBits().decode(claimed);
+        } finally {
+            metrics.record("storage.getRewards", start);
+        }
     }
 
     // Updates a reward for a specific user
     public void updateReward(String uuid, String rewardName, boolean claimed) throws SQLException {
-        String query = "INSERT INTO PlayTime_Rewards (uuid, reward_name, claimed) " +
-                "VALUES (?, ?, ?) " +
-                "ON DUPLICATE KEY UPDATE claimed = ?";
+        long start = System.nanoTime();
+        try {
+            databaseManager.awaitReady();
+            long mask = databaseManager.getRewardBits().maskOf(rewardName);
+            write(Collections.singletonList(uuid), connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement(dialect().updateRewards())) {
+                    stmt.setLong(1, claimed ? ALL_REWARDS : ALL_REWARDS & ~mask);
+                    stmt.setLong(2, claimed ? mask : 0L);
+                    stmt.setString(3, uuid);
+                    return stmt.executeUpdate();
+                }
+            });
+        } finally {
+            metrics.record("storage.updateReward", start);
+        }
+    }
+
+    // Saves a batch of users and their changed rewards in one transaction
+    public void saveUsers(List<PlayerSnapshot> snapshots) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            databaseManager.awaitReady();
+            RewardBits rewardBits = databaseManager.getRewardBits();
 
-        if (isSQLite()) {
-            query = "INSERT INTO PlayTime_Rewards (uuid, reward_name, claimed) " +
-                    "VALUES (?, ?, ?) " +
-                    "ON CONFLICT(uuid, reward_name) DO UPDATE SET claimed = ?";
+            // Only the rewards that changed are written, so a claim made elsewhere is not undone
+            List<String> uuids = new ArrayList<>(snapshots.size());
+            long[] keep = new long[snapshots.size()];
+            long[] set = new long[snapshots.size()];
+            for (int i = 0; i < snapshots.size(); i++) {
+                PlayerSnapshot snapshot = snapshots.get(i);
+                uuids.add(snapshot.getUuid().toString());
+                keep[i] = ALL_REWARDS;
+                for (String rewardName : snapshot.getChangedRewards()) {
+                    long mask = rewardBits.maskOf(rewardName);
+                    if (snapshot.isRewardClaimed(rewardName)) {
+                        set[i] |= mask;
+                    } else {
+                        keep[i] &= ~mask;
+                    }
+                }
+            }
+
+            // In delta mode time gained is added to the row, so servers sharing the database never overwrite
+            // each other; snapshots that only know the totals still write them
+            boolean deltaWrites = databaseManager.isDeltaWrites();
+            List<Integer> absolute = new ArrayList<>();
+            List<Integer> delta = new ArrayList<>();
+            for (int i = 0; i < snapshots.size(); i++) {
+                (deltaWrites && snapshots.get(i).isDelta() ? delta : absolute).add(i);
+            }
+
+            write(uuids, connection -> {
+                if (!absolute.isEmpty()) {
+                    try (PreparedStatement stmt = connection.prepareStatement(dialect().upsertUser())) {
+                        for (int i : absolute) {
+                            PlayerSnapshot snapshot = snapshots.get(i);
+                            bindUser(stmt, uuids.get(i), snapshot.getUsername(), snapshot.getJoinDate(),
+                                    snapshot.getPlaytime(), snapshot.getAfkTime(), keep[i], set[i]);
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                }
+                if (!delta.isEmpty()) {
+                    addTimes(connection, snapshots, uuids, keep, set, delta);
+                }
+                return null;
+            });
+            invalidateAnchors(snapshots);
+        } finally {
+            metrics.record("storage.saveUsers", start);
         }
+    }
 
-        try (PreparedStatement stmt = databaseManager.getConnection().prepareStatement(query)) {
-            stmt.setString(1, uuid);
-            stmt.setString(2, rewardName);
+    /**
+     * Adds the time gained to each user's row. Users with no row yet are inserted with their totals; if another
+     * server inserted one first, the time is added to that instead.
+     */
+    private void addTimes(Connection connection, List<PlayerSnapshot> snapshots, List<String> uuids,
+                          long[] keep, long[] set, List<Integer> indexes) throws SQLException {
+        List<Integer> missing = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(dialect().addUserTimes())) {
+            for (int i : indexes) {
+                bindTimes(stmt, snapshots.get(i), uuids.get(i), keep[i], set[i]);
+                stmt.addBatch();
+            }
+            int[] counts = stmt.executeBatch();
+            for (int j = 0; j < counts.length; j++) {
+                if (counts[j] == 0) {
+                    missing.add(indexes.get(j));
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
 
-            if (isSQLite()) {
-                stmt.setInt(3, claimed ? 1 : 0);
-                stmt.setInt(4, claimed ? 1 : 0);
-            } else {
-                stmt.setBoolean(3, claimed);
-                stmt.setBoolean(4, claimed);
+        // Only a player's first write gets here, so these go one by one: a batched insert does not report
+        // which rows it skipped once the MySQL driver rewrites it
+        try (PreparedStatement insert = connection.prepareStatement(dialect().insertUserIfAbsent());
+             PreparedStatement add = connection.prepareStatement(dialect().addUserTimes())) {
+            for (int i : missing) {
+                PlayerSnapshot snapshot = snapshots.get(i);
+                insert.setString(1, uuids.get(i));
+                insert.setString(2, snapshot.getUsername());
+                setJoinedDay(insert, 3, snapshot.getJoinDate());
+                insert.setLong(4, toMillis(snapshot.getPlaytime()));
+                insert.setLong(5, toMillis(snapshot.getAfkTime()));
+                insert.setLong(6, set[i]);
+                if (insert.executeUpdate() == 0) {
+                    bindTimes(add, snapshot, uuids.get(i), keep[i], set[i]);
+                    add.executeUpdate();
+                }
+            }
+        }
+    }
+
+    // Imports play time for a batch of users in one transaction, only where none is recorded yet
+    public int importPlaytimes(List<PlayerSnapshot> records) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            List<String> uuids = new ArrayList<>(records.size());
+            for (PlayerSnapshot record : records) {
+                uuids.add(record.getUuid().toString());
             }
 
-            stmt.executeUpdate();
+            int imported = write(uuids, connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement(dialect().importPlaytime())) {
+                    for (PlayerSnapshot record : records) {
+                        stmt.setString(1, record.getUuid().toString());
+                        stmt.setString(2, record.getUsername());
+                        setJoinedDay(stmt, 3, record.getJoinDate());
+                        stmt.setLong(4, toMillis(record.getPlaytime()));
+                        stmt.addBatch();
+                    }
+
+                    int count = 0;
+                    for (int updated : stmt.executeBatch()) {
+                        if (updated > 0 || updated == Statement.SUCCESS_NO_INFO) {
+                            count++;
+                        }
+                    }
+                    return count;
+                }
+            });
+            // Imported players only ever move up, from no play time
+            long highest = 0;
+            for (PlayerSnapshot record : records) {
+                highest = Math.max(highest, toMillis(record.getPlaytime()));
+            }
+            invalidateAnchorsThrough(highest);
+            return imported;
+        } finally {
+            metrics.record("storage.importPlaytimes", start);
         }
     }
 
     // Get all user UUIDs (for /pttop command)
     public java.util.List<String> getAllUserUUIDs() throws SQLException {
-        String query = "SELECT uuid FROM PlayTime_Users WHERE playtime > 0 ORDER BY playtime DESC";
-        java.util.List<String> uuids = new java.util.ArrayList<>();
+        long start = System.nanoTime();
+        UserCache cache = databaseManager.getUserCache();
+        List<String> cached = cache != null ? cache.getLeaderboard() : null;
+        if (cached != null) {
+            metrics.record("storage.getAllUserUUIDs", start);
+            return cached;
+        }
+
+        long generation = cache != null ? cache.getGeneration() : 0;
+        try (Connection connection = borrow(Collections.emptyList())) {
+            java.util.List<String> uuids = new java.util.ArrayList<>();
+
+            SchemaV2Migration migration = databaseManager.getMigration();
+            boolean migrating = migration != null && migration.lockLegacyTables();
+            String query = migrating ? dialect().selectMigratingUuidsByPlaytime() : dialect().selectUuidsByPlaytime();
+            try (PreparedStatement stmt = connection.prepareStatement(query);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    uuids.add(rs.getString("uuid"));
+                }
+            } finally {
+                if (migrating) {
+                    migration.unlockLegacyTables();
+                }
+            }
+
+            if (cache != null) {
+                cache.putLeaderboard(uuids, generation);
+            }
+            return uuids;
+        } finally {
+            metrics.record("storage.getAllUserUUIDs", start);
+        }
+    }
+
+    // Counts the players on the leaderboard, at most once per database.leaderboard.count_refresh (for /pttop)
+    public int countLeaderboard() throws SQLException {
+        long refreshMillis = 1000L * databaseManager.getConfig().getLong("database.leaderboard.count_refresh", 60);
+        if (leaderboardCount >= 0 && System.currentTimeMillis() - leaderboardCountAt < refreshMillis) {
+            return leaderboardCount;
+        }
+
+        long start = System.nanoTime();
+        try {
+            int count;
+            SchemaV2Migration migration = databaseManager.getMigration();
+            if (migration != null && !migration.isComplete()) {
+                count = getAllUserUUIDs().size();
+            } else {
+                try (Connection connection = borrow(Collections.emptyList());
+                     PreparedStatement stmt = connection.prepareStatement(dialect().countLeaderboard());
+                     ResultSet rs = stmt.executeQuery()) {
+                    count = rs.next() ? rs.getInt("players") : 0;
+                }
+            }
+
+            // Ranks have drifted as much as the count may have, so pages are found again from the top
+            pageAnchors.clear();
+            leaderboardCount = count;
+            leaderboardCountAt = System.currentTimeMillis();
+            return count;
+        } finally {
+            metrics.record("storage.countLeaderboard", start);
+        }
+    }
+
+    /**
+     * Drops the remembered page ends that players written here may have moved past, so the pages after them are
+     * found again. A player moves between their previous and their new play time, so every page ending at or
+     * below the higher of the two is affected; for a snapshot that does not know its previous total, all are.
+     */
+    private void invalidateAnchors(List<PlayerSnapshot> snapshots) {
+        if (pageAnchors.isEmpty()) {
+            return;
+        }
+
+        long highest = 0;
+        for (PlayerSnapshot snapshot : snapshots) {
+            if (!snapshot.isDelta()) {
+                pageAnchors.clear();
+                return;
+            }
+            double previous = snapshot.getPlaytime() - snapshot.getPlaytimeDelta();
+            highest = Math.max(highest, toMillis(Math.max(previous, snapshot.getPlaytime())));
+        }
+        invalidateAnchorsThrough(highest);
+    }
 
-        try (PreparedStatement stmt = databaseManager.getConnection().prepareStatement(query);
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                uuids.add(rs.getString("uuid"));
+    // Drops the remembered ends of the pages ending at or below the given play time, and of every page after them
+    private void invalidateAnchorsThrough(long playtimeMs) {
+        for (Map.Entry<Integer, PageAnchor> anchor : pageAnchors.entrySet()) {
+            if (anchor.getValue().playtimeMs <= playtimeMs) {
+                pageAnchors.tailMap(anchor.getKey(), true).clear();
+                return;
             }
         }
+    }
+
+    /**
+     * Reads one page of the leaderboard (for /pttop). The last row of every page read is remembered, so a later
+     * read of that page or one after it seeks to it in idx_players_leaderboard instead of counting rows from the
+     * top. A jump past the pages remembered first walks the keys in between from the nearest one, remembering
+     * the end of every page it passes, so each stretch of the index is walked once rather than skipped again with
+     * OFFSET on every read. Page ends are forgotten when a write here moves a player past them, and all of them
+     * when the player count is refreshed, which also covers writes from other servers.
+     *
+     * @param page     The page, from 1.
+     * @param pageSize The players per page.
+     * @return The players on the page, most play time first.
+     */
+    public List<LeaderboardIndex.Entry> getLeaderboardPage(int page, int pageSize) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            SchemaV2Migration migration = databaseManager.getMigration();
+            if (migration != null && !migration.isComplete()) {
+                // Players not copied yet are only in the v1 table, which has no such index
+                List<String> uuids = getAllUserUUIDs();
+                List<LeaderboardIndex.Entry> entries = new ArrayList<>();
+                int from = Math.min((page - 1) * pageSize, uuids.size());
+                for (String uuid : uuids.subList(from, Math.min(from + pageSize, uuids.size()))) {
+                    entries.add(new LeaderboardIndex.Entry(UUID.fromString(uuid), null, getPlaytime(uuid)));
+                }
+                return entries;
+            }
+
+            if (pageSize != anchorPageSize) {
+                pageAnchors.clear();
+                anchorPageSize = pageSize;
+            }
+            Map.Entry<Integer, PageAnchor> anchor = pageAnchors.lowerEntry(page);
+
+            List<LeaderboardIndex.Entry> entries = new ArrayList<>(pageSize);
+            PageAnchor last = null;
+            try (Connection connection = borrow(Collections.emptyList())) {
+                int anchorPage = anchor != null ? anchor.getKey() : 0;
+                if (anchorPage < page - 1) {
+                    anchor = seedAnchors(connection, anchor, page - 1, pageSize);
+                    if (anchor == null || anchor.getKey() < page - 1) {
+                        return entries; // The leaderboard ends before this page
+                    }
+                }
+
+                try (PreparedStatement stmt = connection.prepareStatement(anchor != null
+                        ? dialect().selectLeaderboardPageAfter() : dialect().selectLeaderboardPage())) {
+                    int index = 1;
+                    if (anchor != null) {
+                        stmt.setLong(index++, anchor.getValue().playtimeMs);
+                        stmt.setLong(index++, anchor.getValue().playtimeMs);
+                        stmt.setString(index++, anchor.getValue().uuid);
+                    }
+                    stmt.setInt(index, pageSize);
+
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            last = new PageAnchor(rs.getLong("playtime_ms"), rs.getString("uuid"));
+                            entries.add(new LeaderboardIndex.Entry(UUID.fromString(last.uuid), rs.getString("username"),
+                                    fromMillis(last.playtimeMs)));
+                        }
+                    }
+                }
+            }
+
+            if (last != null && entries.size() == pageSize) {
+                pageAnchors.put(page, last);
+            }
+            return entries;
+        } finally {
+            metrics.record("storage.getLeaderboardPage", start);
+        }
+    }
+
+    /**
+     * Walks the leaderboard keys from the nearest page end remembered, or from the top if {@code from} is null,
+     * to the end of {@code toPage}, remembering the end of every full page passed.
+     *
+     * @return The last page end reached, which is before the page if the leaderboard ends first, or null if
+     *         there are no rows.
+     */
+    private Map.Entry<Integer, PageAnchor> seedAnchors(Connection connection, Map.Entry<Integer, PageAnchor> from,
+                                                       int toPage, int pageSize) throws SQLException {
+        int fromPage = from != null ? from.getKey() : 0;
+        try (PreparedStatement stmt = connection.prepareStatement(from != null
+                ? dialect().selectLeaderboardKeysAfter() : dialect().selectLeaderboardKeys())) {
+            int index = 1;
+            if (from != null) {
+                stmt.setLong(index++, from.getValue().playtimeMs);
+                stmt.setLong(index++, from.getValue().playtimeMs);
+                stmt.setString(index++, from.getValue().uuid);
+            }
+            stmt.setLong(index, (long) (toPage - fromPage) * pageSize);
+
+            Map.Entry<Integer, PageAnchor> reached = from;
+            try (ResultSet rs = stmt.executeQuery()) {
+                int row = 0;
+                while (rs.next()) {
+                    if (++row % pageSize == 0) {
+                        PageAnchor end = new PageAnchor(rs.getLong("playtime_ms"), rs.getString("uuid"));
+                        int endPage = fromPage + row / pageSize;
+                        pageAnchors.put(endPage, end);
+                        reached = new AbstractMap.SimpleImmutableEntry<>(endPage, end);
+                    }
+                }
+            }
+            return reached;
+        }
+    }
+
+    /**
+     * Finds a player's rank by counting the players ranked above them (for placeholders).
+     *
+     * @param uuid     The player.
+     * @param playtime Their play time in seconds, which may be newer than their stored row.
+     * @return Their rank, 1 for the most play time, or 0 if they have no play time or the v2 migration still
+     *         has players in the v1 table.
+     */
+    public int getLeaderboardRank(UUID uuid, double playtime) throws SQLException {
+        long playtimeMs = toMillis(playtime);
+        SchemaV2Migration migration = databaseManager.getMigration();
+        if (playtimeMs <= 0 || migration != null && !migration.isComplete()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        try (Connection connection = borrow(Collections.emptyList());
+             PreparedStatement stmt = connection.prepareStatement(dialect().countLeaderboardAhead())) {
+            stmt.setLong(1, playtimeMs);
+            stmt.setLong(2, playtimeMs);
+            stmt.setString(3, uuid.toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return (rs.next() ? rs.getInt("players") : 0) + 1;
+            }
+        } finally {
+            metrics.record("storage.getLeaderboardRank", start);
+        }
+    }
+
+    /**
+     * Receives the rows of {@link #forEachLeaderboardRow}.
+     */
+    public interface LeaderboardVisitor {
+        /**
+         * @return Whether to go on to the next row.
+         */
+        boolean visit(int rank, UUID uuid, String username, double playtime);
+    }
+
+    /**
+     * Walks the leaderboard from the top in chunks, each a range of idx_players_leaderboard continuing after
+     * the last, until the visitor has seen enough (for placeholders). Nothing is visited while the v2 migration
+     * still has players in the v1 table.
+     *
+     * @param chunkSize The rows read per query.
+     * @param visitor   Called for every row in order.
+     */
+    public void forEachLeaderboardRow(int chunkSize, LeaderboardVisitor visitor) throws SQLException {
+        SchemaV2Migration migration = databaseManager.getMigration();
+        if (migration != null && !migration.isComplete()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (Connection connection = borrow(Collections.emptyList());
+             PreparedStatement first = connection.prepareStatement(dialect().selectLeaderboardPage());
+             PreparedStatement next = connection.prepareStatement(dialect().selectLeaderboardPageAfter())) {
+            int rank = 0;
+            PageAnchor last = null;
+            while (true) {
+                PreparedStatement stmt = first;
+                int index = 1;
+                if (last != null) {
+                    stmt = next;
+                    stmt.setLong(index++, last.playtimeMs);
+                    stmt.setLong(index++, last.playtimeMs);
+                    stmt.setString(index++, last.uuid);
+                }
+                stmt.setInt(index, chunkSize);
+
+                int read = 0;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        read++;
+                        last = new PageAnchor(rs.getLong("playtime_ms"), rs.getString("uuid"));
+                        if (!visitor.visit(++rank, UUID.fromString(last.uuid), rs.getString("username"), fromMillis(last.playtimeMs))) {
+                            return;
+                        }
+                    }
+                }
+                if (read < chunkSize) {
+                    return;
+                }
+            }
+        } finally {
+            metrics.record("storage.forEachLeaderboardRow", start);
+        }
+    }
+
+    // Reads a page of users in uuid order, after the given uuid (for /ptmigrate)
+    public List<PlayerSnapshot> loadUsers(String afterUuid, int limit) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            SchemaV2Migration migration = databaseManager.getMigration();
+            if (migration != null && !migration.isComplete()) {
+                throw new SQLException("Players are still being copied to schema version 2");
+            }
+
+            List<PlayerSnapshot> rows = new ArrayList<>(limit);
+            List<Long> claimed = new ArrayList<>(limit);
+            try (Connection connection = borrow(Collections.emptyList());
+                 PreparedStatement stmt = connection.prepareStatement(dialect().selectUsersAfter())) {
+                stmt.setString(1, afterUuid);
+                stmt.setInt(2, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        int joinedDay = rs.getInt("joined_day");
+                        String joined = rs.wasNull() ? null : fromEpochDay(joinedDay);
+                        rows.add(new PlayerSnapshot(UUID.fromString(rs.getString("uuid")), rs.getString("username"), joined,
+                                fromMillis(rs.getLong("playtime_ms")), fromMillis(rs.getLong("afk_ms")),
+                                Collections.emptyMap(), Collections.emptySet()));
+                        claimed.add(rs.getLong("claimed_rewards"));
+                    }
+                }
+            }
+
+            // Decoded once the connection is returned, as an unknown bit borrows one to reload the names
+            List<PlayerSnapshot> users = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                PlayerSnapshot row = rows.get(i);
+                Map<String, Boolean> rewards = databaseManager.getRewardBits().decode(claimed.get(i));
+                users.add(new PlayerSnapshot(row.getUuid(), row.getUsername(), row.getJoinDate(),
+                        row.getPlaytime(), row.getAfkTime(), rewards, rewards.keySet()));
+            }
+            return users;
+        } finally {
+            metrics.record("storage.loadUsers", start);
+        }
+    }
 
-        return uuids;
+    // Borrows a connection for reading once the schema is up to date and the players are migrated
+    private Connection borrow(List<String> uuids) throws SQLException {
+        databaseManager.awaitReady();
+        migrate(uuids);
+        return databaseManager.borrowConnection();
     }
 
-    private boolean isSQLite() {
+    // Runs a write in one transaction once the schema is up to date and the players are migrated, logging the
+    // players it changed for the other servers and dropping them from the cache
+    private <T> T write(List<String> uuids, DatabaseManager.Work<T> work) throws SQLException {
+        databaseManager.awaitReady();
+        migrate(uuids);
+
+        ChangeLog changeLog = databaseManager.getChangeLog();
         try {
-            return databaseManager.getConnection().getMetaData().getDatabaseProductName().equals("SQLite");
-        } catch (SQLException e) {
-            return false;
+            return databaseManager.write(connection -> {
+                T result = work.run(connection);
+                if (changeLog != null) {
+                    changeLog.append(connection, uuids);
+                }
+                return result;
+            });
+        } finally {
+            if (databaseManager.getUserCache() != null) {
+                databaseManager.getUserCache().invalidate(uuids);
+            }
+        }
+    }
+
+    // Reads a user's whole row, from the cache when there is one
+    private UserCache.CachedUser readUser(String uuid) throws SQLException {
+        UserCache cache = databaseManager.getUserCache();
+        if (cache != null) {
+            UserCache.CachedUser cached = cache.get(uuid);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        long generation = cache != null ? cache.getGeneration() : 0;
+        UserCache.CachedUser user = UserCache.CachedUser.MISSING;
+        try (Connection connection = borrow(Collections.singletonList(uuid));
+             PreparedStatement stmt = connection.prepareStatement(dialect().selectUser())) {
+            stmt.setString(1, uuid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    int joinedDay = rs.getInt("joined_day");
+                    Integer joined = rs.wasNull() ? null : joinedDay;
+                    user = new UserCache.CachedUser(rs.getString("username"), joined, rs.getLong("playtime_ms"),
+                            rs.getLong("afk_ms"), rs.getLong("claimed_rewards"), rs.getLong("version"));
+                }
+            }
+        }
+
+        if (cache != null) {
+            cache.put(uuid, user, generation);
+        }
+        return user;
+    }
+
+    private SqlDialect dialect() throws SQLException {
+        SqlDialect dialect = databaseManager.getDialect();
+        if (dialect == null) {
+            throw new SQLException("Database is not connected");
+        }
+        return dialect;
+    }
+
+    // Copies players from the v1 tables first if the schema migration has not reached them yet
+    private void migrate(List<String> uuids) throws SQLException {
+        SchemaV2Migration migration = databaseManager.getMigration();
+        if (migration != null && !uuids.isEmpty()) {
+            migration.migrate(uuids);
         }
     }
-}
\ No newline at end of file
+
+    private static void bindUser(PreparedStatement stmt, String uuid, String username, String joinedDate,
+                                 double playtime, double afkTime, long keepRewards, long setRewards) throws SQLException {
+        stmt.setString(1, uuid);
+        stmt.setString(2, username);
+        setJoinedDay(stmt, 3, joinedDate);
+        stmt.setLong(4, toMillis(playtime));
+        stmt.setLong(5, toMillis(afkTime));
+        stmt.setLong(6, setRewards);
+
+        // Update values
+        stmt.setString(7, username);
+        stmt.setLong(8, toMillis(playtime));
+        stmt.setLong(9, toMillis(afkTime));
+        stmt.setLong(10, keepRewards);
+        stmt.setLong(11, setRewards);
+    }
+
+    private static void bindTimes(PreparedStatement stmt, PlayerSnapshot snapshot, String uuid,
+                                  long keepRewards, long setRewards) throws SQLException {
+        stmt.setString(1, snapshot.getUsername());
+        stmt.setLong(2, toMillis(snapshot.getPlaytimeDelta()));
+        stmt.setLong(3, toMillis(snapshot.getAfkTimeDelta()));
+        stmt.setLong(4, keepRewards);
+        stmt.setLong(5, setRewards);
+        stmt.setString(6, uuid);
+    }
+
+    private static void setJoinedDay(PreparedStatement stmt, int index, String joinedDate) throws SQLException {
+        Integer joinedDay = toEpochDay(joinedDate);
+        if (joinedDay == null) {
+            stmt.setNull(index, Types.INTEGER);
+        } else {
+            stmt.setInt(index, joinedDay);
+        }
+    }
+
+    // Times are stored as whole milliseconds
+    static long toMillis(double seconds) {
+        return Math.round(seconds * 1000.0);
+    }
+
+    static double fromMillis(long millis) {
+        return millis / 1000.0;
+    }
+
+    /**
+     * @param date A date as dd.MM.yyyy, or yyyy-MM-dd as MySQL returns a v1 DATE column.
+     * @return The date as days since 1970-01-01, or null if it is missing or unreadable.
+     */
+    static Integer toEpochDay(String date) {
+        if (date == null) {
+            return null;
+        }
+        try {
+            return (int) LocalDate.parse(date, DATE_FORMAT).toEpochDay();
+        } catch (DateTimeParseException e) {
+            try {
+                return (int) LocalDate.parse(date).toEpochDay();
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    static String fromEpochDay(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay).format(DATE_FORMAT);
+    }
+}
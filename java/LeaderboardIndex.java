@@ -0,0 +1,244 @@
+package com.whiteiverson.minecraft.playtime_plugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * LeaderboardIndex keeps every player with play time ordered by it, most first, in an indexable skip list.
+ * <p>
+ * Each link also stores how many players it skips, as in Redis sorted sets, so the player at a rank and the
+ * rank of a player are both found in O(log n) by walking down the levels. A page of {@code /pttop} is then one
+ * such lookup plus a walk along the bottom level. Players with the same play time are ordered by UUID so every
+ * player has exactly one place.
+ * <p>
+ * Methods are synchronized; updates come from the server thread as sessions accrue and from the thread that
+ * builds the index at startup.
+ */
+public class LeaderboardIndex {
+
+    /**
+     * A player's place on the leaderboard as it was when read.
+     */
+    public static class Entry {
+        private final UUID uuid;
+        private final String username;
+        private final double playtime;
+
+        public Entry(UUID uuid, String username, double playtime) {
+            this.uuid = uuid;
+            this.username = username;
+            this.playtime = playtime;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public double getPlaytime() {
+            return playtime;
+        }
+    }
+
+    private static final int MAX_LEVEL = 32;
+
+    private static class Node {
+        Entry entry;
+        final Node[] next;
+        // How many players the link at each level skips, counting the one it lands on
+        final int[] width;
+
+        Node(Entry entry, int levels) {
+            this.entry = entry;
+            this.next = new Node[levels];
+            this.width = new int[levels];
+        }
+    }
+
+    private final Node head = new Node(null, MAX_LEVEL);
+    private final Map<UUID, Node> nodes = new HashMap<>();
+    private int level = 1;
+
+    /**
+     * Sets a player's play time, moving them to their new place. A player without play time is removed.
+     */
+    public synchronized void update(UUID uuid, String username, double playtime) {
+        Node existing = nodes.get(uuid);
+        if (existing != null) {
+            if (existing.entry.playtime == playtime) {
+                if (username != null && !username.equals(existing.entry.username)) {
+                    existing.entry = new Entry(uuid, username, playtime);
+                }
+                return;
+            }
+            delete(existing);
+            if (username == null) {
+                username = existing.entry.username;
+            }
+        }
+
+        if (playtime > 0) {
+            insert(new Entry(uuid, username, playtime));
+        }
+    }
+
+    /**
+     * Adds a player read from storage, unless they were already added by a newer update.
+     */
+    public synchronized void updateIfAbsent(UUID uuid, String username, double playtime) {
+        if (!nodes.containsKey(uuid)) {
+            update(uuid, username, playtime);
+        }
+    }
+
+    public synchronized void remove(UUID uuid) {
+        Node node = nodes.get(uuid);
+        if (node != null) {
+            delete(node);
+        }
+    }
+
+    /**
+     * @return The player's rank, 1 for the most play time, or 0 if they are not on the leaderboard.
+     */
+    public synchronized int getRank(UUID uuid) {
+        Node node = nodes.get(uuid);
+        if (node == null) {
+            return 0;
+        }
+
+        int rank = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && !comesBefore(node.entry, x.next[i].entry)) {
+                rank += x.width[i];
+                x = x.next[i];
+            }
+            if (x == node) {
+                return rank;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param from  The index of the first player, 0 for the top.
+     * @param count The most players to return.
+     * @return The players from that place on, in order.
+     */
+    public synchronized List<Entry> getPage(int from, int count) {
+        List<Entry> page = new ArrayList<>(Math.max(0, Math.min(count, nodes.size() - from)));
+        if (from < 0 || from >= nodes.size()) {
+            return page;
+        }
+
+        // Walk down to the node at rank from + 1, then along the bottom level
+        int traversed = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.width[i] <= from + 1) {
+                traversed += x.width[i];
+                x = x.next[i];
+            }
+        }
+
+        while (x != null && page.size() < count) {
+            page.add(x.entry);
+            x = x.next[0];
+        }
+        return page;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            head.next[i] = null;
+            head.width[i] = 0;
+        }
+        nodes.clear();
+        level = 1;
+    }
+
+    private void insert(Entry entry) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && comesBefore(x.next[i].entry, entry)) {
+                rank[i] += x.width[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int levels = randomLevel();
+        if (levels > level) {
+            for (int i = level; i < levels; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.width[i] = nodes.size();
+            }
+            level = levels;
+        }
+
+        Node node = new Node(entry, levels);
+        for (int i = 0; i < levels; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.width[i] = update[i].width[i] - (rank[0] - rank[i]);
+            update[i].width[i] = rank[0] - rank[i] + 1;
+        }
+        // Links above the new node now skip one more player
+        for (int i = levels; i < level; i++) {
+            update[i].width[i]++;
+        }
+        nodes.put(entry.uuid, node);
+    }
+
+    private void delete(Node node) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && x.next[i] != node && comesBefore(x.next[i].entry, node.entry)) {
+                x = x.next[i];
+            }
+            if (x.next[i] == node) {
+                x.width[i] += node.width[i] - 1;
+                x.next[i] = node.next[i];
+            } else {
+                x.width[i]--;
+            }
+        }
+
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        nodes.remove(node.entry.uuid);
+    }
+
+    // Most play time first; ties by UUID so the order is total
+    private static boolean comesBefore(Entry a, Entry b) {
+        int byTime = Double.compare(b.playtime, a.playtime);
+        return byTime != 0 ? byTime < 0 : a.uuid.compareTo(b.uuid) < 0;
+    }
+
+    private static int randomLevel() {
+        int levels = 1;
+        // A quarter of the nodes reach each next level, as in Redis
+        while (levels < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0) {
+            levels++;
+        }
+        return levels;
+    }
+}
@@ -2,11 +2,14 @@ package com.whiteiverson.minecraft.playtime_plugin;
 
 import java.io.File;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.StringJoiner;
 import java.util.UUID;
 
+import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -16,15 +19,24 @@ import net.md_5.bungee.api.ChatColor;
 import net.milkbowl.vault.chat.Chat;
 
 import com.whiteiverson.minecraft.playtime_plugin.Commands.PlayTimeCommand;
+import com.whiteiverson.minecraft.playtime_plugin.Commands.PlayTimeImportCommand;
+import com.whiteiverson.minecraft.playtime_plugin.Commands.PlayTimeMigrateCommand;
 import com.whiteiverson.minecraft.playtime_plugin.Commands.PlayTimeRewardsCommand;
+import com.whiteiverson.minecraft.playtime_plugin.Commands.PlayTimeStatsCommand;
 import com.whiteiverson.minecraft.playtime_plugin.Commands.PlayTimeTopCommand;
 import com.whiteiverson.minecraft.playtime_plugin.Database.DatabaseManager;
 import com.whiteiverson.minecraft.playtime_plugin.Database.UserDataManager;
 import com.whiteiverson.minecraft.playtime_plugin.Rewards.RewardsHandler;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.PersistenceExecutor;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.PlayerSnapshot;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.StorageMigrator;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.WorldStatsImporter;
 import com.whiteiverson.minecraft.playtime_plugin.Utilities.ColorUtil;
 import com.whiteiverson.minecraft.playtime_plugin.Utilities.PlaceHolder;
 import com.whiteiverson.minecraft.playtime_plugin.Utilities.Translator;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.LeaderboardSnapshot;
 import com.whiteiverson.minecraft.playtime_plugin.Utilities.LibraryLoader;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.Metrics;
 import org.jetbrains.annotations.NotNull;
 
 public class Main extends JavaPlugin {
@@ -36,6 +48,9 @@ public class Main extends JavaPlugin {
     private ColorUtil colorUtil;
     private DatabaseManager databaseManager;
 	private UserDataManager userDataManager;
+	private PersistenceExecutor persistenceExecutor;
+	private LeaderboardSnapshot leaderboardSnapshot;
+	private final Metrics metrics = new Metrics();
 	private Chat vaultChat;
 	private File rewardsFile;
 
@@ -67,17 +82,36 @@ public class Main extends JavaPlugin {
         libraryLoader.loadDependencies();
 
         // Initialise DatabaseManager and UserDataManager
-        databaseManager = new DatabaseManager(getConfig(), getLogger(), getDataFolder());
+        databaseManager = new DatabaseManager(getConfig(), getLogger(), getDataFolder(), metrics);
 
         if (getConfig().getBoolean("database.enabled", false)) {
             try {
                 databaseManager.connect();
 
-                if (databaseManager.getConnection() != null && !databaseManager.getConnection().isClosed()) {
-                    userDataManager = new UserDataManager(databaseManager);
+                if (databaseManager.isConnected()) {
+                    // Claimed rewards are stored as a bitmask, which has room for a fixed number of rewards
+                    try {
+                        databaseManager.checkRewardCapacity(getConfig().getBoolean("rewards.enabled", true)
+                                ? RewardsHandler.loadRewardNames(new File(getDataFolder(), "rewards.yml"))
+                                : Collections.emptyList());
+                    } catch (SQLException e) {
+                        databaseManager.close();
+                        throw e;
+                    }
+
+                    userDataManager = new UserDataManager(databaseManager, metrics);
                     getLogger().info("Database features enabled successfully.");
+
+                    // Players are served from memory while the schema is brought up to date
+                    Bukkit.getScheduler().runTaskAsynchronously(this, databaseManager.getMigrator());
+
+                    // Drops cached players that other servers sharing the database have written
+                    if (databaseManager.getChangeLog() != null) {
+                        long interval = Math.max(1, getConfig().getLong("database.change_log.poll_interval", 2)) * 20L;
+                        Bukkit.getScheduler().runTaskTimerAsynchronously(this, databaseManager.getChangeLog(), interval, interval);
+                    }
                 } else {
-                    getLogger().warning("Database connection is null or closed. Falling back to flat-file storage.");
+                    getLogger().warning("Database connection pool is not open. Falling back to flat-file storage.");
                     getConfig().set("database.enabled", false);
                     saveConfig();
                 }
@@ -106,6 +140,12 @@ public class Main extends JavaPlugin {
         rewardsFile = new File(getDataFolder(), "rewards.yml");
 
         userHandler = new UserHandler();
+
+        // Start the background writer before any player data is touched
+        persistenceExecutor = new PersistenceExecutor(userHandler::writeSnapshots, getLogger(),
+                getConfig().getInt("storage.write-queue-size", 1024), getConfig().getInt("storage.write-batch-size", 200));
+        persistenceExecutor.start();
+
         playTimeHandler = new PlayTimeHandler(this, userHandler);
         rewardsHandler = new RewardsHandler(this);
 
@@ -113,6 +153,13 @@ public class Main extends JavaPlugin {
         userHandler.enable();
         playTimeHandler.enable();
 
+        // Drops expired player records that are not read again, which would otherwise wait for the cache to fill
+        long expireAfter = getConfig().getLong("cache.expire-after", 600);
+        if (expireAfter > 0) {
+            long sweepInterval = Math.max(60, expireAfter) * 20L;
+            Bukkit.getScheduler().runTaskTimerAsynchronously(this, this::purgeExpiredRecords, sweepInterval, sweepInterval);
+        }
+
         manageRewards();
 
         // Register event listeners
@@ -124,17 +171,32 @@ public class Main extends JavaPlugin {
         // PlaceholderAPI integration
         if (getServer().getPluginManager().getPlugin("PlaceholderAPI") != null) {
             new PlaceHolder().register();
+
+            // Rank and top placeholders are answered from a copy refreshed off the main thread
+            leaderboardSnapshot = new LeaderboardSnapshot(this, getConfig().getInt("placeholders.top-size", 10));
+            long interval = Math.max(1, getConfig().getLong("placeholders.refresh-interval", 30)) * 20L;
+            Bukkit.getScheduler().runTaskTimerAsynchronously(this, leaderboardSnapshot, 20L, interval);
         }
 
         // Output success message
         getLogger().info(translator.getTranslation("plugin.load_success", null));
     }
 
+    private void purgeExpiredRecords() {
+        userHandler.getUserConfigCache().purgeExpired();
+        if (databaseManager != null && databaseManager.getUserCache() != null) {
+            databaseManager.getUserCache().getRecords().purgeExpired();
+        }
+    }
+
     private void registerCommands() {
         registerCommand("pt", new PlayTimeCommand(this));
         registerCommand("pttop", new PlayTimeTopCommand(this));
         registerCommand("ptrewards", new PlayTimeRewardsCommand(userHandler, rewardsFile));
         registerCommand("ptreload", this);
+        registerCommand("ptimport", new PlayTimeImportCommand(this, new WorldStatsImporter(this)));
+        registerCommand("ptstats", new PlayTimeStatsCommand(this));
+        registerCommand("ptmigrate", new PlayTimeMigrateCommand(this, new StorageMigrator(this)));
     }
 
     private void registerCommand(String command, Object executor) {
@@ -151,7 +213,21 @@ public class Main extends JavaPlugin {
 
     @Override
     public void onDisable() {
-        // Ensure to save any necessary data here, if applicable
+        // Write the latest playtime of online players before storage is closed
+        int online = 0;
+        if (userHandler != null && persistenceExecutor != null) {
+            online = userHandler.closeSessions();
+        }
+
+        // Wait for the background writer to drain before storage is closed
+        if (persistenceExecutor != null) {
+            int timeout = getConfig().getInt("storage.shutdown-timeout", 10);
+            logShutdown(persistenceExecutor.shutdown(timeout * 1000L), online, timeout);
+        }
+        if (userHandler != null) {
+            userHandler.closeStorage();
+        }
+
         instance = null;
         
         if (databaseManager != null) {
@@ -159,6 +235,31 @@ public class Main extends JavaPlugin {
         }
     }
 
+    private void logShutdown(PersistenceExecutor.ShutdownReport report, int online, int timeout) {
+        if (!report.getSaved().isEmpty()) {
+            getLogger().info("Saved " + report.getSaved().size() + " players (" + online + " online) in "
+                    + report.getElapsedMillis() + " ms.");
+            if (getConfig().getBoolean("logging.debug", false)) {
+                StringJoiner names = new StringJoiner(", ");
+                report.getSaved().forEach(snapshot -> names.add(describe(snapshot)));
+                getLogger().info("Saved: " + names);
+            }
+        }
+
+        if (!report.getUnsaved().isEmpty()) {
+            getLogger().severe("Could not save " + report.getUnsaved().size() + " players within " + timeout
+                    + " seconds (storage.shutdown-timeout). Their changes since the last save are lost:");
+            for (PlayerSnapshot snapshot : report.getUnsaved()) {
+                getLogger().severe("  " + describe(snapshot) + ": play time " + Math.round(snapshot.getPlaytime())
+                        + " s, AFK time " + Math.round(snapshot.getAfkTime()) + " s");
+            }
+        }
+    }
+
+    private static String describe(PlayerSnapshot snapshot) {
+        return snapshot.getUsername() != null ? snapshot.getUsername() + " (" + snapshot.getUuid() + ")" : snapshot.getUuid().toString();
+    }
+
     @Override
     public boolean onCommand(@NotNull CommandSender sender, Command cmd, @NotNull String label, String[] args) {
         if ("ptreload".equalsIgnoreCase(cmd.getName())) {
@@ -179,6 +280,7 @@ public class Main extends JavaPlugin {
         playTimeHandler.loadConfigValues(); // Reloads values in playTimeHandler
         translator.loadDefaultLanguage();
         manageRewards();
+        userHandler.resetRewardChecks(); // Rewards may have changed
     }
 
     public static Map<String, String> calculatePlaytime(long totalSeconds, Main main, Object sender, Translator translator) {
@@ -282,4 +384,19 @@ public class Main extends JavaPlugin {
     public UserDataManager getUserDataManager() {
     	return userDataManager;
     }
+
+    public PersistenceExecutor getPersistenceExecutor() {
+        return persistenceExecutor;
+    }
+
+    /**
+     * @return The leaderboard copy behind the rank and top placeholders, or null without PlaceholderAPI.
+     */
+    public LeaderboardSnapshot getLeaderboardSnapshot() {
+        return leaderboardSnapshot;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
 }
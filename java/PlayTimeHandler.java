@@ -4,25 +4,42 @@ import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.Reader;
 import java.util.UUID;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.WorldStatsImporter;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.LatencyHistogram;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.Metrics;
 
 public class PlayTimeHandler {
     private Main main; // Reference to the main plugin instance
     private UserHandler userHandler;
     private boolean trackAfk; // Whether to track AFK time
+    private boolean sessionAccounting; // Whether time is derived from timestamps instead of added per tick
     private int autoSaveInterval; // Interval for auto-saving play time data
+    private int tickBuckets; // Number of ticks each online player is spread over
+    private TickTask tickTask;
+
+    // Resolved once, as every online player records each phase every cycle
+    private final LatencyHistogram loadLatency;
+    private final LatencyHistogram afkLatency;
+    private final LatencyHistogram playtimeLatency;
+    private final LatencyHistogram saveLatency;
+    private final LatencyHistogram rewardsLatency;
+    private final LatencyHistogram playerLatency;
 
     public PlayTimeHandler(Main main, UserHandler userHandler) {
         this.main = main; // Initialise the main instance
         this.userHandler = userHandler; // Inject the UserHandler
+
+        Metrics metrics = main.getMetrics();
+        loadLatency = metrics.histogram("tick.load");
+        afkLatency = metrics.histogram("tick.afk");
+        playtimeLatency = metrics.histogram("tick.playtime");
+        saveLatency = metrics.histogram("tick.save");
+        rewardsLatency = metrics.histogram("tick.rewards");
+        playerLatency = metrics.histogram("tick.player");
     }
 
     public void enable() {
@@ -33,91 +50,145 @@ public class PlayTimeHandler {
     public void loadConfigValues() {
         // Load values from config.yml
         trackAfk = main.getConfig().getBoolean("track-afk.enabled", false);
+        sessionAccounting = "session".equalsIgnoreCase(main.getConfig().getString("playtime.accounting", "tick"));
         autoSaveInterval = main.getConfig().getInt("playtime.auto-save-interval", 300);
+        tickBuckets = Math.max(1, Math.min(100, main.getConfig().getInt("playtime.tick-buckets", 20)));
     }
 
     private void startTasks() {
-        // Schedule the main tick task
-        Bukkit.getScheduler().scheduleSyncRepeatingTask(main, new TickTask(), 0L, 20L);
+        // Schedule the main tick task - it handles one bucket of players every tick
+        tickTask = new TickTask();
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(main, tickTask, 0L, 1L);
 
         // Schedule the auto-save task
         Bukkit.getScheduler().runTaskTimer(main, this::autoSavePlaytimeData, autoSaveInterval * 20L, autoSaveInterval * 20L);
     }
     
+    /**
+     * Processes every online player at once. The scheduled {@link TickTask} spreads the same work over buckets instead.
+     */
     public void processPlayers() {
+        checkStorage();
+
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            processPlayer(player);
+        }
+    }
+
+    public void checkStorage() {
         // Check if database is misconfigured
         if (main.getConfig().getBoolean("database.enabled", false) && main.getUserDataManager() == null) {
             main.getLogger().severe("Database is enabled but UserDataManager is null! Disabling database features.");
             main.getConfig().set("database.enabled", false);
         }
+    }
 
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            UUID uuid = player.getUniqueId();
-
-            // Load user data for the player
-            userHandler.loadUserData(uuid);
-            
-            // Check if user data was successfully loaded
-            if (userHandler.getUserData(uuid, "playtime") == null) {
-                continue; // Skip processing for this player
-            }
+    public void processPlayer(Player player) {
+        long start = System.nanoTime();
+        UUID uuid = player.getUniqueId();
 
-            // Check if the stored username matches the current username
-            String currentUsername = player.getName();
-            Object storedUsernameObj = userHandler.getUserData(uuid, "user"); // Get the stored username
+        // Use the in-memory session, only loading from storage if the player has none yet
+        PlayerSession session = userHandler.getSession(uuid);
+        if (session == null) {
+            session = userHandler.openSession(player);
+        }
 
-            // Ensure that the object is a String or default to the current username
-            String storedUsername = (storedUsernameObj instanceof String) ? (String) storedUsernameObj : currentUsername;
+        // Check if user data was successfully loaded
+        if (session == null) {
+            return; // Skip processing for this player
+        }
+
+        // Check if the stored username matches the current username
+        String currentUsername = player.getName();
+        if (!currentUsername.equals(session.getUsername())) {
+            // Username has changed, update it with the next flush
+            session.setUsername(currentUsername);
+        }
 
-            if (!storedUsername.equals(currentUsername)) {
-                // Username has changed, update it in the file
-                userHandler.setUserData(uuid, "user", currentUsername);
+        // If the user has no recorded play time, retrieve it from world files once per session
+        if (!session.isWorldStatsChecked()) {
+            session.setWorldStatsChecked(true);
+            if (session.getPlaytime() == 0 && player.hasPlayedBefore()) {
+                session.setPlaytime(retrievePlaytimeFromWorldFiles(uuid));
             }
+        }
+        long phase = loadLatency.recordSince(start);
+
+        boolean afk = trackAfk && userHandler.isAfk(uuid);
+        phase = afkLatency.recordSince(phase);
 
-            // Get play time from UserHandler
-            double playtime = userHandler.getUserConfigValue(uuid, "playtime", 0);
-            double afkTime = userHandler.getUserConfigValue(uuid, "afk-time", 0); // Retrieve afk-time
+        if (sessionAccounting) {
+            // Time accrues from timestamps - only AFK transitions need to be looked for
+            boolean transitioned = updateSessionTiming(session, uuid, afk);
+            phase = playtimeLatency.recordSince(phase);
 
-            // If the user has no recorded play time, retrieve it from world files
-            if (playtime == 0 && player.hasPlayedBefore()) {
-                playtime = retrievePlaytimeFromWorldFiles(uuid);
-                userHandler.setUserData(uuid, "playtime", playtime); // Save the retrieved play time
+            if (transitioned) {
+                // Persist at each transition
+                userHandler.saveUserData(uuid);
+                phase = saveLatency.recordSince(phase);
             }
+        } else {
+            // Switched back from session accounting by a reload
+            long now = System.nanoTime();
+            if (session.isTiming()) {
+                session.stopTiming(now);
+                session.resetAccrual(now);
+            }
+
+            // Credit the time since this player was last processed, however many ticks that took
+            double elapsed = session.accrue(now);
 
             // Increment play time and afk-time based on AFK status
-            if (trackAfk && userHandler.isAfk(uuid)) {
+            if (afk) {
                 // Player is AFK, increment the afk-time
-                afkTime += 1; // Increment AFK time by 1 second
-                userHandler.setUserData(uuid, "afk-time", afkTime); // Save afk-time in UserHandler
+                session.addAfkTime(elapsed);
             } else {
                 // Player is active, increment the play time
-                playtime += 1; // Increment play time by 1 second
-                userHandler.setUserData(uuid, "playtime", playtime); // Update play time in UserHandler
+                session.addPlaytime(elapsed);
             }
+            phase = playtimeLatency.recordSince(phase);
+        }
+        userHandler.updateLeaderboard(session);
 
-            // Process rewards for the player based on their updated play time
+        // Process rewards only once the player's play time reaches their next unclaimed reward
+        if (session.getPlaytime() >= session.getNextRewardAt()) {
             main.getRewardsHandler().processPlayer(player);
-            
-            // Save the updated user data
-            userHandler.saveUserData(uuid);
+            session.setNextRewardAt(main.getRewardsHandler().getNextRewardTime(uuid));
+            rewardsLatency.recordSince(phase);
         }
+        playerLatency.recordSince(start);
     }
-    
-    @SuppressWarnings("deprecation") // The deprecated method is for older versions of Minecraft
-	private JsonObject parseJson(Reader reader) throws IOException {
-        try {
-            // Attempt to use the newer parseReader(Reader) method (available in GSON 2.8.6+)
-            return JsonParser.parseReader(reader).getAsJsonObject();
-        } catch (NoSuchMethodError e) {
-            // If the newer method isn't available, fall back to the older parse(String) method
-            StringBuilder jsonContent = new StringBuilder();
-            String line;
-            BufferedReader bufferedReader = new BufferedReader(reader);
-            while ((line = bufferedReader.readLine()) != null) {
-                jsonContent.append(line);
-            }
-            return new JsonParser().parse(jsonContent.toString()).getAsJsonObject();
+
+    /**
+     * Starts or adjusts the timestamp-based accounting of a session. Transitions are dated back
+     * to when they actually happened, so a slow tick does not change the result.
+     *
+     * @return True if the player moved between active and AFK.
+     */
+    private boolean updateSessionTiming(PlayerSession session, UUID uuid, boolean afk) {
+        long now = System.nanoTime();
+
+        if (!session.isTiming()) {
+            session.startTiming(afk, now);
+            return false;
+        }
+
+        if (afk == session.isTimingAfk()) {
+            return false;
         }
+
+        long lastActive = userHandler.getLastActive(uuid);
+        long sinceMillis = afk
+                ? System.currentTimeMillis() - (lastActive + userHandler.getAfkThreshold()) // Became AFK when the threshold passed
+                : System.currentTimeMillis() - lastActive; // Became active at the last activity
+
+        long at = now - Math.max(0L, sinceMillis) * 1_000_000L;
+        if (afk) {
+            session.markAfk(at);
+        } else {
+            session.markActive(at);
+        }
+        return true;
     }
 
     // Get play time from server files as initial value
@@ -136,20 +207,11 @@ public class PlayTimeHandler {
 
         // Check if the file exists before reading
         if (playerFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(playerFile))) {
-                // Use the utility method to parse the JSON file
-                JsonObject json = parseJson(reader);
-
-                // Navigate to the play time within "stats.minecraft:custom.minecraft:play_time"
-                if (json.has("stats")) {
-                    JsonObject stats = json.getAsJsonObject("stats");
-                    if (stats.has("minecraft:custom")) {
-                        JsonObject customStats = stats.getAsJsonObject("minecraft:custom");
-                        if (customStats.has("minecraft:play_time")) {
-                            long playTimeTicks = customStats.get("minecraft:play_time").getAsLong();
-                            return playTimeTicks / 20.0; // Convert ticks to seconds
-                        }
-                    }
+            try {
+                // Stream the file and stop as soon as the play time is found
+                long playTimeTicks = WorldStatsImporter.readPlayTimeTicks(playerFile);
+                if (playTimeTicks > 0) {
+                    return playTimeTicks / 20.0; // Convert ticks to seconds
                 }
             } catch (IOException e) {
                 if (main.getConfig().getBoolean("logging.debug", false)) {
@@ -164,14 +226,39 @@ public class PlayTimeHandler {
     }
 
     private void autoSavePlaytimeData() {
-        // Logic for auto-saving play time data to database or flat-file
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            UUID uuid = player.getUniqueId();
-            double playtime = userHandler.getPlaytime(uuid); // Get play time from UserHandler
-            userHandler.setUserData(uuid, "playtime", playtime); // Save the play time to persistent storage
+        // Write sessions that changed since the last save to the database or flat-file
+        long start = System.nanoTime();
+        userHandler.flushSessions();
+        main.getMetrics().record("autosave.flush", start);
+
+        if (main.getConfig().getBoolean("logging.debug", false)) {
+            logBucketCosts();
         }
     }
 
+    private void logBucketCosts() {
+        StringBuilder summary = new StringBuilder("Tick bucket cost (players/avg/max in \u00b5s):");
+        for (int i = 0; i < tickTask.getBucketCount(); i++) {
+            summary.append(' ').append(i).append('=')
+                    .append(tickTask.getPlayerCount(i)).append('/')
+                    .append(tickTask.getAverageNanos(i) / 1000).append('/')
+                    .append(tickTask.getMaxNanos(i) / 1000);
+        }
+        main.getLogger().info(summary.toString());
+    }
+
+    public int getTickBuckets() {
+        return tickBuckets;
+    }
+
+    public TickTask getTickTask() {
+        return tickTask;
+    }
+
+    public boolean isSessionAccounting() {
+        return sessionAccounting;
+    }
+
     public boolean hasSufficientPlaytime(UUID uuid, double requiredPlaytime) {
         return userHandler.getPlaytime(uuid) >= requiredPlaytime; // Check if the user has sufficient play time
     }
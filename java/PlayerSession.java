@@ -0,0 +1,290 @@
+package com.whiteiverson.minecraft.playtime_plugin;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.whiteiverson.minecraft.playtime_plugin.Storage.PlayerSnapshot;
+
+/**
+ * PlayerSession is the in-memory record of an online player's playtime.
+ * Ticks only mutate this record; it is written back to storage by {@link UserHandler#flushSessions()}.
+ * Changes are made on the server thread, but reads may come from other threads (e.g. PlaceholderAPI).
+ */
+public class PlayerSession {
+    private final UUID uuid;
+    private final String joinDate;
+    private final Map<String, Boolean> rewards = new ConcurrentHashMap<>();
+    private final Set<String> changedRewards = new HashSet<>();
+    private static final long NOT_TIMING = Long.MIN_VALUE;
+
+    private volatile String username;
+    private volatile boolean dirty;
+    private boolean worldStatsChecked;
+    private double nextRewardAt;
+
+    // Stored totals, plus the System.nanoTime() at which the current active or AFK stretch began
+    private double playtime;
+    private double afkTime;
+    private long activeSince = NOT_TIMING;
+    private long afkSince = NOT_TIMING;
+    private long lastAccrual = System.nanoTime();
+
+    // The totals as of the last snapshot, so each snapshot knows the time gained since
+    private double snapshotPlaytime;
+    private double snapshotAfkTime;
+
+    public PlayerSession(UUID uuid, String username, String joinDate, double playtime, double afkTime) {
+        this.uuid = uuid;
+        this.username = username;
+        this.joinDate = joinDate;
+        this.playtime = playtime;
+        this.afkTime = afkTime;
+        this.snapshotPlaytime = playtime;
+        this.snapshotAfkTime = afkTime;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+        this.dirty = true;
+    }
+
+    public String getJoinDate() {
+        return joinDate;
+    }
+
+    public synchronized double getPlaytime() {
+        return activeSince == NOT_TIMING ? playtime : playtime + secondsBetween(activeSince, System.nanoTime());
+    }
+
+    public synchronized void setPlaytime(double playtime) {
+        this.playtime = playtime;
+        if (activeSince != NOT_TIMING) {
+            activeSince = System.nanoTime(); // The new value already includes the current stretch
+        }
+        this.dirty = true;
+    }
+
+    public synchronized void addPlaytime(double seconds) {
+        this.playtime += seconds;
+        this.dirty = true;
+    }
+
+    public synchronized double getAfkTime() {
+        return afkSince == NOT_TIMING ? afkTime : afkTime + secondsBetween(afkSince, System.nanoTime());
+    }
+
+    public synchronized void setAfkTime(double afkTime) {
+        this.afkTime = afkTime;
+        if (afkSince != NOT_TIMING) {
+            afkSince = System.nanoTime();
+        }
+        this.dirty = true;
+    }
+
+    public synchronized void addAfkTime(double seconds) {
+        this.afkTime += seconds;
+        this.dirty = true;
+    }
+
+    /**
+     * Starts timestamp-based accounting: from now on time accrues on its own and is read as
+     * {@code stored + (now - since)}, so nothing needs to be added per tick.
+     *
+     * @param afk Whether the player starts out AFK.
+     * @param now The current {@link System#nanoTime()}.
+     */
+    public synchronized void startTiming(boolean afk, long now) {
+        if (isTiming()) {
+            return;
+        }
+
+        if (afk) {
+            afkSince = now;
+        } else {
+            activeSince = now;
+        }
+    }
+
+    public synchronized boolean isTiming() {
+        return activeSince != NOT_TIMING || afkSince != NOT_TIMING;
+    }
+
+    public synchronized boolean isTimingAfk() {
+        return afkSince != NOT_TIMING;
+    }
+
+    /**
+     * Moves a timed session from active to AFK.
+     *
+     * @param at The {@link System#nanoTime()} at which the player became AFK.
+     */
+    public synchronized void markAfk(long at) {
+        if (activeSince == NOT_TIMING) {
+            return;
+        }
+
+        at = Math.max(at, activeSince);
+        playtime += secondsBetween(activeSince, at);
+        activeSince = NOT_TIMING;
+        afkSince = at;
+        dirty = true;
+    }
+
+    /**
+     * Moves a timed session from AFK back to active.
+     *
+     * @param at The {@link System#nanoTime()} at which the player became active.
+     */
+    public synchronized void markActive(long at) {
+        if (afkSince == NOT_TIMING) {
+            return;
+        }
+
+        at = Math.max(at, afkSince);
+        afkTime += secondsBetween(afkSince, at);
+        afkSince = NOT_TIMING;
+        activeSince = at;
+        dirty = true;
+    }
+
+    /**
+     * Folds the running stretch into the stored totals, e.g. before a snapshot is taken.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    public synchronized void checkpoint(long now) {
+        if (activeSince != NOT_TIMING && now > activeSince) {
+            playtime += secondsBetween(activeSince, now);
+            activeSince = now;
+            dirty = true;
+        }
+        if (afkSince != NOT_TIMING && now > afkSince) {
+            afkTime += secondsBetween(afkSince, now);
+            afkSince = now;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Ends timestamp-based accounting, keeping the time accrued so far.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    public synchronized void stopTiming(long now) {
+        checkpoint(now);
+        activeSince = NOT_TIMING;
+        afkSince = NOT_TIMING;
+    }
+
+    /**
+     * Returns the seconds since the session was last processed per tick and restarts the measurement.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    public synchronized double accrue(long now) {
+        double elapsed = now > lastAccrual ? secondsBetween(lastAccrual, now) : 0;
+        lastAccrual = now;
+        return elapsed;
+    }
+
+    public synchronized void resetAccrual(long now) {
+        lastAccrual = now;
+    }
+
+    private static double secondsBetween(long from, long to) {
+        return (to - from) / 1_000_000_000.0;
+    }
+
+    /**
+     * The play time at which the next unclaimed reward becomes due, so rewards are only
+     * checked once the player can actually earn one.
+     */
+    public double getNextRewardAt() {
+        return nextRewardAt;
+    }
+
+    public void setNextRewardAt(double nextRewardAt) {
+        this.nextRewardAt = nextRewardAt;
+    }
+
+    public boolean isRewardClaimed(String rewardName) {
+        return rewards.getOrDefault(rewardName, false);
+    }
+
+    /**
+     * Sets the stored state of a reward as it was loaded, without marking it as changed.
+     */
+    public void loadReward(String rewardName, boolean claimed) {
+        rewards.put(rewardName, claimed);
+    }
+
+    public void setRewardClaimed(String rewardName, boolean claimed) {
+        rewards.put(rewardName, claimed);
+        synchronized (changedRewards) {
+            changedRewards.add(rewardName);
+        }
+        this.dirty = true;
+    }
+
+    /**
+     * Captures the current state for the persistence worker and marks the session clean.
+     * Changes made after this call are picked up by the next snapshot.
+     *
+     * @return An immutable copy of this session.
+     */
+    public synchronized PlayerSnapshot snapshot() {
+        checkpoint(System.nanoTime());
+        this.dirty = false;
+        Set<String> changed;
+        synchronized (changedRewards) {
+            changed = new HashSet<>(changedRewards);
+            changedRewards.clear();
+        }
+        double playtimeDelta = playtime - snapshotPlaytime;
+        double afkTimeDelta = afkTime - snapshotAfkTime;
+        snapshotPlaytime = playtime;
+        snapshotAfkTime = afkTime;
+        return new PlayerSnapshot(uuid, username, joinDate, playtime, afkTime, rewards, changed, playtimeDelta, afkTimeDelta);
+    }
+
+    /**
+     * Restores a session from a snapshot that has not reached storage yet.
+     */
+    public static PlayerSession fromSnapshot(PlayerSnapshot snapshot) {
+        PlayerSession session = new PlayerSession(snapshot.getUuid(), snapshot.getUsername(), snapshot.getJoinDate(),
+                snapshot.getPlaytime(), snapshot.getAfkTime());
+        snapshot.getRewards().forEach(session::loadReward);
+        return session;
+    }
+
+    /**
+     * Whether anything changed since the last snapshot. A timed session only counts once its running stretch
+     * has actually moved a total past what the last snapshot stored.
+     */
+    public synchronized boolean isDirty() {
+        return dirty || getPlaytime() != snapshotPlaytime || getAfkTime() != snapshotAfkTime;
+    }
+
+    /**
+     * Whether the vanilla stats file has already been consulted for this session,
+     * so a missing file is only looked up once per join rather than every tick.
+     */
+    public boolean isWorldStatsChecked() {
+        return worldStatsChecked;
+    }
+
+    public void setWorldStatsChecked(boolean worldStatsChecked) {
+        this.worldStatsChecked = worldStatsChecked;
+    }
+}
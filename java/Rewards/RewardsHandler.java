@@ -4,6 +4,7 @@ import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
 import com.whiteiverson.minecraft.playtime_plugin.Main;
+import com.whiteiverson.minecraft.playtime_plugin.Database.DatabaseManager;
 import com.whiteiverson.minecraft.playtime_plugin.Utilities.Translator;
 
 import com.earth2me.essentials.Essentials;
@@ -13,6 +14,7 @@ import github.scarsz.discordsrv.dependencies.jda.api.entities.TextChannel;
 import org.bukkit.configuration.file.FileConfiguration;
 
 import java.io.File;
+import java.sql.SQLException;
 import java.util.*;
 
 public class RewardsHandler {
@@ -43,7 +45,7 @@ public class RewardsHandler {
         }
 
         FileConfiguration rewardsConfig = Translator.loadYamlWithBomHandlingStatic(rewardsFile);
-        rewards = new TreeSet<>();
+        Set<Rewards> loaded = new TreeSet<>();
 
         // Ensure rewards section exists in the configuration
         if (rewardsConfig.contains("rewards")) {
@@ -57,7 +59,7 @@ public class RewardsHandler {
 
                 // Validate reward configuration before adding it
                 if (name != null && !commands.isEmpty()) {
-                    rewards.add(new Rewards(name, time, commands));
+                    loaded.add(new Rewards(name, time, commands));
                 } else {
                     Bukkit.getLogger().warning(main.getTranslator().getTranslation("rewards.invalid_key", null) + key);
                 }
@@ -65,6 +67,57 @@ public class RewardsHandler {
         } else {
             Bukkit.getLogger().warning(main.getTranslator().getTranslation("rewards.no_rewards", null));
         }
+
+        if (fitsDatabase(loaded)) {
+            rewards = loaded;
+        }
+    }
+
+    /**
+     * Checks that the database, if in use, can store claims of every reward. If not, the rewards already in use are
+     * kept, as a claim that cannot be stored would be given again.
+     */
+    private boolean fitsDatabase(Set<Rewards> loaded) {
+        DatabaseManager databaseManager = main.getDatabaseManager();
+        if (databaseManager == null || !databaseManager.isEnabled() || databaseManager.getRewardBits() == null) {
+            return true;
+        }
+
+        Set<String> names = new HashSet<>();
+        for (Rewards reward : loaded) {
+            names.add(reward.getName());
+        }
+        try {
+            databaseManager.getRewardBits().checkCapacity(names);
+            return true;
+        } catch (SQLException e) {
+            main.getLogger().severe(e.getMessage() + ". The previous rewards are still in use.");
+            return false;
+        }
+    }
+
+    /**
+     * Reads the reward names from rewards.yml without setting the rewards up, so storage can check them first.
+     *
+     * @param rewardsFile The rewards.yml file.
+     * @return The names of the rewards, empty if the file does not exist yet.
+     */
+    public static Set<String> loadRewardNames(File rewardsFile) {
+        Set<String> names = new HashSet<>();
+        if (!rewardsFile.exists()) {
+            return names;
+        }
+
+        FileConfiguration rewardsConfig = Translator.loadYamlWithBomHandlingStatic(rewardsFile);
+        if (rewardsConfig.contains("rewards")) {
+            for (String key : Objects.requireNonNull(rewardsConfig.getConfigurationSection("rewards")).getKeys(false)) {
+                String name = rewardsConfig.getString("rewards." + key + ".name");
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
     }
 
     /**
@@ -130,6 +183,22 @@ public class RewardsHandler {
         }
     }
 
+    /**
+     * Finds the play time at which the player's next unclaimed reward becomes due.
+     *
+     * @param uuid The player's UUID.
+     * @return The required play time in seconds, or {@link Double#MAX_VALUE} if every reward is claimed.
+     */
+    public double getNextRewardTime(UUID uuid) {
+        // Rewards are sorted by ascending time, so the first unclaimed one is the next due
+        for (Rewards reward : rewards) {
+            if (!hasRewardBeenClaimed(uuid, reward)) {
+                return reward.getTime();
+            }
+        }
+        return Double.MAX_VALUE;
+    }
+
     /**
      * Sends a reward message to Discord via EssentialsX.
      *
@@ -0,0 +1,331 @@
+package com.whiteiverson.minecraft.playtime_plugin.Storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * BinaryPlayerStore keeps every player's record in one memory-mapped file of fixed-width records.
+ * <p>
+ * The position of each player's record is indexed in memory when the file is opened, so a load is a single
+ * read at a known offset and a save overwrites the record in place. Reward names are mapped to bits in a
+ * small side file, {@code <name>.rewards}, so claimed rewards take a fixed 32 bytes per player.
+ * <p>
+ * Record layout, big-endian:
+ * <pre>
+ *  0  UUID most significant bits   (long)
+ *  8  UUID least significant bits  (long)
+ * 16  play time in milliseconds    (long)
+ * 24  AFK time in milliseconds     (long)
+ * 32  join date as epoch day       (int, {@link #NO_DATE} if unknown)
+ * 36  username length in bytes     (byte)
+ * 37  username, UTF-8              (16 bytes)
+ * 53  reserved                     (3 bytes)
+ * 56  claimed rewards bitset       (4 longs)
+ * 88  reserved                     (8 bytes)
+ * </pre>
+ */
+public class BinaryPlayerStore implements PlayerStore {
+
+    private static final int MAGIC = 0x50544253; // "PTBS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 96;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int OFFSET_PLAYTIME = 16;
+    private static final int OFFSET_AFK_TIME = 24;
+    private static final int OFFSET_JOINED = 32;
+    private static final int OFFSET_USERNAME_LENGTH = 36;
+    private static final int OFFSET_USERNAME = 37;
+    private static final int OFFSET_REWARDS = 56;
+
+    private static final int USERNAME_BYTES = 16;
+    private static final int REWARD_WORDS = 4;
+    public static final int MAX_REWARDS = REWARD_WORDS * Long.SIZE;
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final long FORCE_INTERVAL_MILLIS = 5000;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+
+    private final File file;
+    private final File rewardsFile;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final Map<UUID, Integer> index = new HashMap<>();
+    private final List<String> rewardNames = new ArrayList<>();
+    private final Map<String, Integer> rewardBits = new HashMap<>();
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private long lastForce = System.currentTimeMillis();
+
+    private BinaryPlayerStore(File file, RandomAccessFile raf) {
+        this.file = file;
+        this.rewardsFile = new File(file.getParentFile(), file.getName() + ".rewards");
+        this.raf = raf;
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * Opens the store, creating it if the file does not exist yet.
+     *
+     * @param file   The data file.
+     * @param logger Where to report a damaged file.
+     */
+    public static BinaryPlayerStore open(File file, Logger logger) throws IOException {
+        BinaryPlayerStore store = new BinaryPlayerStore(file, new RandomAccessFile(file, "rw"));
+        try {
+            store.load(logger);
+        } catch (IOException e) {
+            store.raf.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void load(Logger logger) throws IOException {
+        if (rewardsFile.exists()) {
+            for (String name : Files.readAllLines(rewardsFile.toPath(), StandardCharsets.UTF_8)) {
+                if (!name.isEmpty()) {
+                    rewardBits.put(name, rewardNames.size());
+                    rewardNames.add(name);
+                }
+            }
+        }
+
+        if (channel.size() == 0) {
+            map(INITIAL_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putInt(12, 0);
+            return;
+        }
+
+        if (channel.size() < HEADER_SIZE) {
+            throw new IOException(file.getName() + " is too short to be a player store");
+        }
+
+        map((int) Math.max(INITIAL_CAPACITY, (channel.size() - HEADER_SIZE) / RECORD_SIZE));
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(file.getName() + " is not a player store");
+        }
+        if (buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE) {
+            throw new IOException(file.getName() + " has unsupported version " + buffer.getInt(4));
+        }
+
+        int stored = buffer.getInt(12);
+        if (stored < 0 || stored > capacity) {
+            logger.warning(file.getName() + " claims " + stored + " records but only has room for " + capacity
+                    + ". Reading what fits.");
+            stored = Math.min(Math.max(stored, 0), capacity);
+        }
+
+        for (int slot = 0; slot < stored; slot++) {
+            int offset = offsetOf(slot);
+            index.put(new UUID(buffer.getLong(offset), buffer.getLong(offset + 8)), slot);
+        }
+        count = stored;
+    }
+
+    private void map(int records) throws IOException {
+        capacity = records;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) records * RECORD_SIZE);
+    }
+
+    private static int offsetOf(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    @Override
+    public synchronized boolean contains(UUID uuid) {
+        return index.containsKey(uuid);
+    }
+
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized Set<UUID> getUuids() {
+        return new HashSet<>(index.keySet());
+    }
+
+    /**
+     * Reads a player's record.
+     *
+     * @param uuid The UUID of the player.
+     * @return The record, or null if the player is not stored.
+     */
+    @Override
+    public synchronized PlayerSnapshot read(UUID uuid) {
+        Integer slot = index.get(uuid);
+        if (slot == null) {
+            return null;
+        }
+
+        int offset = offsetOf(slot);
+        double playtime = buffer.getLong(offset + OFFSET_PLAYTIME) / 1000.0;
+        double afkTime = buffer.getLong(offset + OFFSET_AFK_TIME) / 1000.0;
+
+        int epochDay = buffer.getInt(offset + OFFSET_JOINED);
+        String joinDate = epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay).format(DATE_FORMAT);
+
+        int usernameLength = Math.min(buffer.get(offset + OFFSET_USERNAME_LENGTH) & 0xFF, USERNAME_BYTES);
+        String username = null;
+        if (usernameLength > 0) {
+            byte[] bytes = new byte[usernameLength];
+            for (int i = 0; i < usernameLength; i++) {
+                bytes[i] = buffer.get(offset + OFFSET_USERNAME + i);
+            }
+            username = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        Map<String, Boolean> rewards = new HashMap<>();
+        for (int bit = 0; bit < rewardNames.size(); bit++) {
+            long word = buffer.getLong(offset + OFFSET_REWARDS + (bit / Long.SIZE) * Long.BYTES);
+            rewards.put(rewardNames.get(bit), (word & (1L << (bit % Long.SIZE))) != 0);
+        }
+
+        return new PlayerSnapshot(uuid, username, joinDate, playtime, afkTime, rewards, Collections.emptySet());
+    }
+
+    /**
+     * Writes a player's record, overwriting it in place if the player is already stored.
+     *
+     * @param snapshot The record to write.
+     */
+    @Override
+    public synchronized void write(PlayerSnapshot snapshot) throws IOException {
+        long[] rewardWords = new long[REWARD_WORDS];
+        for (Map.Entry<String, Boolean> reward : snapshot.getRewards().entrySet()) {
+            if (reward.getValue()) {
+                int bit = rewardBit(reward.getKey());
+                rewardWords[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+            }
+        }
+
+        Integer slot = index.get(snapshot.getUuid());
+        boolean append = slot == null;
+        if (append) {
+            if (count == capacity) {
+                map(capacity * 2);
+            }
+            slot = count;
+        }
+
+        int offset = offsetOf(slot);
+        buffer.putLong(offset, snapshot.getUuid().getMostSignificantBits());
+        buffer.putLong(offset + 8, snapshot.getUuid().getLeastSignificantBits());
+        buffer.putLong(offset + OFFSET_PLAYTIME, Math.round(snapshot.getPlaytime() * 1000.0));
+        buffer.putLong(offset + OFFSET_AFK_TIME, Math.round(snapshot.getAfkTime() * 1000.0));
+        buffer.putInt(offset + OFFSET_JOINED, toEpochDay(snapshot.getJoinDate()));
+
+        byte[] username = usernameBytes(snapshot.getUsername());
+        buffer.put(offset + OFFSET_USERNAME_LENGTH, (byte) username.length);
+        for (int i = 0; i < USERNAME_BYTES; i++) {
+            buffer.put(offset + OFFSET_USERNAME + i, i < username.length ? username[i] : 0);
+        }
+
+        for (int word = 0; word < REWARD_WORDS; word++) {
+            buffer.putLong(offset + OFFSET_REWARDS + word * Long.BYTES, rewardWords[word]);
+        }
+
+        // Only count a new record once it is complete
+        if (append) {
+            index.put(snapshot.getUuid(), slot);
+            count++;
+            buffer.putInt(12, count);
+        }
+
+        // The OS writes mapped pages back on its own; this bounds what a power cut could lose
+        long now = System.currentTimeMillis();
+        if (now - lastForce > FORCE_INTERVAL_MILLIS) {
+            lastForce = now;
+            buffer.force();
+        }
+    }
+
+    private int rewardBit(String rewardName) throws IOException {
+        Integer bit = rewardBits.get(rewardName);
+        if (bit != null) {
+            return bit;
+        }
+
+        if (rewardNames.size() >= MAX_REWARDS) {
+            throw new IOException("Cannot store more than " + MAX_REWARDS + " different rewards");
+        }
+        if (rewardName.contains("\n") || rewardName.contains("\r")) {
+            throw new IOException("Reward names cannot contain line breaks: " + rewardName);
+        }
+
+        // Append the name before using its bit, so a bit is never set without a name
+        Files.write(rewardsFile.toPath(), Collections.singletonList(rewardName), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        rewardBits.put(rewardName, rewardNames.size());
+        rewardNames.add(rewardName);
+        return rewardNames.size() - 1;
+    }
+
+    private static int toEpochDay(String joinDate) {
+        if (joinDate == null) {
+            return NO_DATE;
+        }
+        try {
+            return (int) LocalDate.parse(joinDate, DATE_FORMAT).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return NO_DATE;
+        }
+    }
+
+    private static byte[] usernameBytes(String username) {
+        if (username == null) {
+            return new byte[0];
+        }
+
+        // Minecraft names are at most 16 ASCII characters; anything longer is cut on a character boundary
+        byte[] bytes = username.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        while (length > USERNAME_BYTES) {
+            username = username.substring(0, username.length() - 1);
+            bytes = username.getBytes(StandardCharsets.UTF_8);
+            length = bytes.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes changed pages to disk.
+     */
+    @Override
+    public synchronized void force() {
+        buffer.force();
+        lastForce = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+        raf.close();
+    }
+}
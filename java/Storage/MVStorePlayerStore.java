@@ -0,0 +1,282 @@
+package com.whiteiverson.minecraft.playtime_plugin.Storage;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * MVStorePlayerStore keeps every player's record in an H2 MVStore file, a log-structured key-value store
+ * written in plain Java.
+ * <p>
+ * Records live in the {@code players} map keyed by UUID, so a load or save is a single lookup in the in-memory
+ * page cache. Changes are written to the end of the file by MVStore's background thread every
+ * {@code storage.mvstore.commit-delay} milliseconds. MVStore's own compaction is turned off; the plugin calls
+ * {@link #compact(int)} on its own schedule instead, so rewriting old chunks never competes with a save burst.
+ * <p>
+ * Reward names are mapped to bits in the {@code rewards} map. Record layout, big-endian:
+ * <pre>
+ *  0  format version               (byte)
+ *  1  play time in milliseconds    (long)
+ *  9  AFK time in milliseconds     (long)
+ * 17  join date as epoch day       (int, {@link #NO_DATE} if unknown)
+ * 21  username length in bytes     (byte)
+ * 22  username, UTF-8
+ *  n  claimed rewards word count   (byte)
+ *  +1 claimed rewards bitset       (longs)
+ * </pre>
+ */
+public class MVStorePlayerStore implements PlayerStore {
+
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 22;
+    private static final int MAX_USERNAME_BYTES = 255;
+    public static final int MAX_REWARDS = 255 * Long.SIZE;
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+
+    private final File file;
+    private final Logger logger;
+    private final MVStore store;
+    private final MVMap<UUID, byte[]> players;
+    private final MVMap<String, Integer> rewardBits;
+    private final List<String> rewardNames = new ArrayList<>();
+
+    private MVStorePlayerStore(File file, Logger logger, MVStore store) {
+        this.file = file;
+        this.logger = logger;
+        this.store = store;
+        this.players = store.openMap("players");
+        this.rewardBits = store.openMap("rewards");
+
+        String[] names = new String[rewardBits.size()];
+        for (Map.Entry<String, Integer> entry : rewardBits.entrySet()) {
+            names[entry.getValue()] = entry.getKey();
+        }
+        Collections.addAll(rewardNames, names);
+    }
+
+    /**
+     * Opens the store, creating it if the file does not exist yet.
+     *
+     * @param file          The data file.
+     * @param cacheSizeMb   The size of the page cache in megabytes.
+     * @param commitDelay   How long, in milliseconds, changes may wait before they are written to the file.
+     * @param logger        Where to report records that cannot be read.
+     */
+    public static MVStorePlayerStore open(File file, int cacheSizeMb, int commitDelay, Logger logger) throws IOException {
+        MVStore store;
+        try {
+            store = new MVStore.Builder()
+                    .fileName(file.getPath())
+                    .cacheSize(Math.max(1, cacheSizeMb))
+                    .autoCompactFillRate(0)
+                    .open();
+        } catch (RuntimeException e) {
+            // MVStore reports a locked or damaged file with an unchecked exception
+            throw new IOException("Could not open " + file.getName() + ": " + e.getMessage(), e);
+        }
+
+        try {
+            store.setAutoCommitDelay(Math.max(0, commitDelay));
+            return new MVStorePlayerStore(file, logger, store);
+        } catch (RuntimeException e) {
+            store.close();
+            throw new IOException(file.getName() + " is not a player store: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean contains(UUID uuid) {
+        return players.containsKey(uuid);
+    }
+
+    @Override
+    public int size() {
+        return players.size();
+    }
+
+    @Override
+    public Set<UUID> getUuids() {
+        return new HashSet<>(players.keySet());
+    }
+
+    @Override
+    public PlayerSnapshot read(UUID uuid) {
+        byte[] record = players.get(uuid);
+        if (record == null) {
+            return null;
+        }
+
+        try {
+            return decode(uuid, ByteBuffer.wrap(record));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            logger.warning("Skipping unreadable record of " + uuid + " in " + file.getName() + ".");
+            return null;
+        }
+    }
+
+    private PlayerSnapshot decode(UUID uuid, ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported record version " + version);
+        }
+
+        double playtime = buffer.getLong() / 1000.0;
+        double afkTime = buffer.getLong() / 1000.0;
+
+        int epochDay = buffer.getInt();
+        String joinDate = epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay).format(DATE_FORMAT);
+
+        int usernameLength = buffer.get() & 0xFF;
+        String username = null;
+        if (usernameLength > 0) {
+            byte[] bytes = new byte[usernameLength];
+            buffer.get(bytes);
+            username = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        long[] rewardWords = new long[buffer.get() & 0xFF];
+        for (int word = 0; word < rewardWords.length; word++) {
+            rewardWords[word] = buffer.getLong();
+        }
+
+        List<String> names = rewardNames();
+        Map<String, Boolean> rewards = new HashMap<>();
+        for (int bit = 0; bit < names.size(); bit++) {
+            int word = bit / Long.SIZE;
+            rewards.put(names.get(bit), word < rewardWords.length && (rewardWords[word] & (1L << (bit % Long.SIZE))) != 0);
+        }
+
+        return new PlayerSnapshot(uuid, username, joinDate, playtime, afkTime, rewards, Collections.emptySet());
+    }
+
+    @Override
+    public void write(PlayerSnapshot snapshot) throws IOException {
+        long[] rewardWords = new long[0];
+        for (Map.Entry<String, Boolean> reward : snapshot.getRewards().entrySet()) {
+            if (reward.getValue()) {
+                int bit = rewardBit(reward.getKey());
+                if (bit / Long.SIZE >= rewardWords.length) {
+                    long[] grown = new long[bit / Long.SIZE + 1];
+                    System.arraycopy(rewardWords, 0, grown, 0, rewardWords.length);
+                    rewardWords = grown;
+                }
+                rewardWords[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+            }
+        }
+
+        byte[] username = usernameBytes(snapshot.getUsername());
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + username.length + 1 + rewardWords.length * Long.BYTES);
+        record.put(VERSION);
+        record.putLong(Math.round(snapshot.getPlaytime() * 1000.0));
+        record.putLong(Math.round(snapshot.getAfkTime() * 1000.0));
+        record.putInt(toEpochDay(snapshot.getJoinDate()));
+        record.put((byte) username.length);
+        record.put(username);
+        record.put((byte) rewardWords.length);
+        for (long word : rewardWords) {
+            record.putLong(word);
+        }
+
+        try {
+            players.put(snapshot.getUuid(), record.array());
+        } catch (RuntimeException e) {
+            throw new IOException("Could not write " + snapshot.getUuid() + " to " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized List<String> rewardNames() {
+        return new ArrayList<>(rewardNames);
+    }
+
+    private synchronized int rewardBit(String rewardName) throws IOException {
+        Integer bit = rewardBits.get(rewardName);
+        if (bit != null) {
+            return bit;
+        }
+
+        if (rewardNames.size() >= MAX_REWARDS) {
+            throw new IOException("Cannot store more than " + MAX_REWARDS + " different rewards");
+        }
+
+        // Committed with the first record that uses it, as both are in the same store
+        rewardBits.put(rewardName, rewardNames.size());
+        rewardNames.add(rewardName);
+        return rewardNames.size() - 1;
+    }
+
+    private static int toEpochDay(String joinDate) {
+        if (joinDate == null) {
+            return NO_DATE;
+        }
+        try {
+            return (int) LocalDate.parse(joinDate, DATE_FORMAT).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return NO_DATE;
+        }
+    }
+
+    private static byte[] usernameBytes(String username) {
+        if (username == null) {
+            return new byte[0];
+        }
+
+        // Cut on a character boundary if a name is ever longer than the length byte allows
+        byte[] bytes = username.getBytes(StandardCharsets.UTF_8);
+        while (bytes.length > MAX_USERNAME_BYTES) {
+            username = username.substring(0, username.length() - 1);
+            bytes = username.getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    @Override
+    public void force() throws IOException {
+        try {
+            store.commit();
+        } catch (RuntimeException e) {
+            throw new IOException("Could not commit " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes pending changes, then rewrites the least-used chunks of the file so the space of replaced records
+     * can be reused.
+     *
+     * @param maxMillis The longest to spend compacting.
+     */
+    public void compact(int maxMillis) {
+        if (store.isClosed()) {
+            return;
+        }
+        store.commit();
+        store.compactFile(maxMillis);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            store.close();
+        } catch (RuntimeException e) {
+            throw new IOException("Could not close " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+}
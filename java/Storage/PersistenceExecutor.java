@@ -0,0 +1,538 @@
+package com.whiteiverson.minecraft.playtime_plugin.Storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * PersistenceExecutor writes player snapshots to storage on a dedicated background thread.
+ * <p>
+ * Writes are keyed by UUID: submitting a snapshot for a player that already has one waiting replaces it,
+ * so a player is written at most once per drain no matter how often they are flushed.
+ * The queue only holds UUIDs and is bounded; when it is full the snapshot stays pending and is picked up
+ * by the next sweep, so the server thread never blocks and no write is lost.
+ * <p>
+ * The worker takes everything that is waiting, up to the batch size, and hands it to the writer in one call,
+ * so a save of every online player becomes a few batched writes instead of one round trip per player.
+ * <p>
+ * A player's snapshot that fails five times in a row is held back instead of retried forever.
+ * It still answers {@link #getPending(UUID)} and is written again, merged into the next snapshot submitted for
+ * the player.
+ * <p>
+ * On shutdown everything still pending is handed to the writer as a single batch, one transaction or one file
+ * sync, and retried until the deadline passes. The {@link ShutdownReport} says which players were saved and
+ * which were not.
+ */
+public class PersistenceExecutor {
+
+    /**
+     * Performs the actual storage write of one or more snapshots, all or nothing.
+     * Called from the persistence thread only.
+     */
+    public interface Writer {
+        void write(List<PlayerSnapshot> snapshots) throws Exception;
+    }
+
+    /**
+     * What the final drain on shutdown did.
+     */
+    public static class ShutdownReport {
+        private final List<PlayerSnapshot> saved;
+        private final List<PlayerSnapshot> unsaved;
+        private final long elapsedMillis;
+
+        ShutdownReport(List<PlayerSnapshot> saved, List<PlayerSnapshot> unsaved, long elapsedMillis) {
+            this.saved = saved;
+            this.unsaved = unsaved;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return The snapshots written between the start of the shutdown and the deadline.
+         */
+        public List<PlayerSnapshot> getSaved() {
+            return saved;
+        }
+
+        /**
+         * @return The snapshots that were still pending or being written at the deadline, including any write the
+         *         worker had not finished when it was interrupted and any held back after failing repeatedly.
+         */
+        public List<PlayerSnapshot> getUnsaved() {
+            return unsaved;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+
+    private static final UUID WAKE_UP = new UUID(0L, 0L);
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final int MAX_ATTEMPTS = 5;
+    // How long an interrupted worker is given to abandon its write after the shutdown deadline
+    private static final long INTERRUPT_GRACE_MILLIS = 1000;
+    private static final long BACKPRESSURE_WARNING_INTERVAL_MILLIS = 60000;
+
+    private final Writer writer;
+    private final Logger logger;
+    private final BlockingQueue<UUID> queue;
+    private final int batchSize;
+    private final Object batchLock = new Object();
+    private final Map<UUID, PlayerSnapshot> pending = new ConcurrentHashMap<>();
+    private final Map<UUID, PlayerSnapshot> inFlight = new ConcurrentHashMap<>();
+    // Failed writes in a row per player, and the snapshots held back after too many
+    private final Map<UUID, Integer> attempts = new ConcurrentHashMap<>();
+    private final Map<UUID, PlayerSnapshot> parked = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private volatile boolean overflowed;
+    private volatile long drainDeadline;
+    private Thread worker;
+    // Written during the final drain, collected only once shutdown has started
+    private final List<PlayerSnapshot> drained = Collections.synchronizedList(new ArrayList<>());
+
+    // Metrics
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong lastWriteNanos = new AtomicLong();
+    private final AtomicLong maxWriteNanos = new AtomicLong();
+    private volatile long lastBackpressureWarning;
+
+    public PersistenceExecutor(Writer writer, Logger logger, int capacity, int batchSize) {
+        this.writer = writer;
+        this.logger = logger;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        worker = new Thread(this::run, "PlayTime-Persistence");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues a snapshot for writing, replacing any snapshot of the same player that has not been written yet.
+     * If the executor is not running the snapshot is written immediately on the calling thread.
+     *
+     * @param snapshot The snapshot to write.
+     */
+    public void submit(PlayerSnapshot snapshot) {
+        if (!running) {
+            submitted.incrementAndGet();
+            writeNow(Collections.singletonList(snapshot));
+            return;
+        }
+
+        offer(snapshot);
+    }
+
+    /**
+     * Queues several snapshots at once, e.g. every dirty session on autosave. The worker does not start on them
+     * until all are queued, so they are written together in as few batches as possible.
+     *
+     * @param snapshots The snapshots to write.
+     */
+    public void submitAll(Collection<PlayerSnapshot> snapshots) {
+        if (snapshots.isEmpty()) {
+            return;
+        }
+
+        if (!running) {
+            submitted.addAndGet(snapshots.size());
+            List<PlayerSnapshot> list = new ArrayList<>(snapshots);
+            for (int from = 0; from < list.size(); from += batchSize) {
+                writeNow(list.subList(from, Math.min(list.size(), from + batchSize)));
+            }
+            return;
+        }
+
+        synchronized (batchLock) {
+            for (PlayerSnapshot snapshot : snapshots) {
+                offer(snapshot);
+            }
+        }
+    }
+
+    private void offer(PlayerSnapshot snapshot) {
+        submitted.incrementAndGet();
+
+        if (!enqueue(snapshot)) {
+            // An older snapshot is still waiting, so this one simply replaces it
+            coalesced.incrementAndGet();
+            return;
+        }
+
+        if (!queue.offer(snapshot.getUuid())) {
+            // Queue is full: leave the snapshot pending, the worker sweeps it up once the queue drains
+            rejected.incrementAndGet();
+            overflowed = true;
+            warnBackpressure();
+        }
+
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    /**
+     * Adds a snapshot to the pending writes, coalescing it with any snapshot of the same player still waiting or
+     * held back.
+     *
+     * @return True if the player had nothing pending and needs a queue slot.
+     */
+    private boolean enqueue(PlayerSnapshot snapshot) {
+        boolean[] added = new boolean[1];
+        pending.compute(snapshot.getUuid(), (uuid, older) -> {
+            if (older == null) {
+                added[0] = true;
+                PlayerSnapshot held = parked.remove(uuid);
+                return held != null ? snapshot.coalesce(held) : snapshot;
+            }
+            return snapshot.coalesce(older);
+        });
+        return added[0];
+    }
+
+    /**
+     * Returns the newest snapshot of a player that has been submitted but not yet written,
+     * so reads straight after a write see the new values.
+     *
+     * @param uuid The UUID of the player.
+     * @return The pending snapshot, or null if there is none.
+     */
+    public PlayerSnapshot getPending(UUID uuid) {
+        PlayerSnapshot snapshot = pending.get(uuid);
+        if (snapshot == null) {
+            snapshot = inFlight.get(uuid);
+        }
+        return snapshot != null ? snapshot : parked.get(uuid);
+    }
+
+    /**
+     * Stops accepting work and writes every pending snapshot in one batch, retrying failures until the deadline.
+     *
+     * @param timeoutMillis How long to wait for the writes to finish.
+     * @return Which players were written in time and which were not.
+     */
+    public ShutdownReport shutdown(long timeoutMillis) {
+        long start = System.currentTimeMillis();
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return new ShutdownReport(Collections.emptyList(), unsaved(), 0);
+            }
+            drainDeadline = start + timeoutMillis;
+            running = false;
+            thread = worker;
+        }
+
+        // Wake the worker if it is waiting on an empty queue
+        queue.offer(WAKE_UP);
+        try {
+            thread.join(timeoutMillis);
+            if (thread.isAlive()) {
+                // Past the deadline: stop it retrying or sleeping, so storage is not closed under a write
+                thread.interrupt();
+                thread.join(INTERRUPT_GRACE_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Taken before the saved list, so a write that ends in between counts as unsaved rather than as neither
+        List<PlayerSnapshot> unsaved = unsaved();
+        Set<UUID> unsavedUuids = new HashSet<>();
+        for (PlayerSnapshot snapshot : unsaved) {
+            unsavedUuids.add(snapshot.getUuid());
+        }
+        List<PlayerSnapshot> saved = new ArrayList<>();
+        synchronized (drained) {
+            for (PlayerSnapshot snapshot : drained) {
+                if (!unsavedUuids.contains(snapshot.getUuid())) {
+                    saved.add(snapshot);
+                }
+            }
+        }
+        return new ShutdownReport(saved, unsaved, System.currentTimeMillis() - start);
+    }
+
+    private List<PlayerSnapshot> unsaved() {
+        Map<UUID, PlayerSnapshot> unsaved = new HashMap<>(parked);
+        unsaved.putAll(inFlight);
+        // A pending snapshot is newer than one being written
+        unsaved.putAll(pending);
+        return new ArrayList<>(unsaved.values());
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                UUID uuid = queue.poll(1, TimeUnit.SECONDS);
+                if (uuid != null && !uuid.equals(WAKE_UP)) {
+                    // Take whatever else is waiting, after any submitAll in progress has finished queueing
+                    List<UUID> batch = new ArrayList<>();
+                    batch.add(uuid);
+                    synchronized (batchLock) {
+                        queue.drainTo(batch, batchSize - 1);
+                    }
+                    batch.removeIf(WAKE_UP::equals);
+                    writePending(batch);
+                }
+
+                if (overflowed && queue.isEmpty()) {
+                    overflowed = false;
+                    sweep();
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        // Write everything that was submitted before shutdown together, retrying until the deadline
+        queue.clear();
+        while (!pending.isEmpty() && System.currentTimeMillis() < drainDeadline && !Thread.currentThread().isInterrupted()) {
+            if (!writePending(new ArrayList<>(pending.keySet()))) {
+                sleepQuietly();
+            }
+        }
+    }
+
+    private void sweep() {
+        List<UUID> uuids = new ArrayList<>(pending.keySet());
+        for (int from = 0; from < uuids.size(); from += batchSize) {
+            writePending(uuids.subList(from, Math.min(uuids.size(), from + batchSize)));
+        }
+    }
+
+    /**
+     * @return False if any snapshot failed and was put back.
+     */
+    private boolean writePending(List<UUID> uuids) {
+        List<PlayerSnapshot> snapshots = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            PlayerSnapshot snapshot = take(uuid);
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        if (snapshots.isEmpty()) {
+            return true;
+        }
+
+        try {
+            if (writeNow(snapshots)) {
+                written(snapshots);
+                return true;
+            }
+
+            // One bad record fails the whole batch, so write them one by one to find it
+            List<PlayerSnapshot> failures = new ArrayList<>();
+            if (snapshots.size() > 1) {
+                for (PlayerSnapshot snapshot : snapshots) {
+                    // Past the shutdown deadline the rest are reported as not saved rather than tried
+                    if (!running && System.currentTimeMillis() >= drainDeadline
+                            || !writeNow(Collections.singletonList(snapshot))) {
+                        failures.add(snapshot);
+                    } else {
+                        written(Collections.singletonList(snapshot));
+                    }
+                }
+            } else {
+                failures.addAll(snapshots);
+            }
+
+            if (failures.isEmpty()) {
+                return true;
+            }
+
+            // Put them back behind anything newer and back off before retrying; on shutdown the drain retries
+            for (PlayerSnapshot snapshot : failures) {
+                if (attempts.merge(snapshot.getUuid(), 1, Integer::sum) >= MAX_ATTEMPTS) {
+                    park(snapshot);
+                } else {
+                    requeue(snapshot);
+                }
+            }
+            if (running) {
+                sleepQuietly();
+            }
+            return false;
+        } finally {
+            for (PlayerSnapshot snapshot : snapshots) {
+                inFlight.remove(snapshot.getUuid());
+            }
+        }
+    }
+
+    /**
+     * Moves a player's snapshot from pending to in flight. It is published as in flight before it leaves pending,
+     * so {@link #getPending(UUID)} never misses it in between.
+     */
+    private PlayerSnapshot take(UUID uuid) {
+        while (true) {
+            PlayerSnapshot snapshot = pending.get(uuid);
+            if (snapshot == null) {
+                return null;
+            }
+            inFlight.put(uuid, snapshot);
+            if (pending.remove(uuid, snapshot)) {
+                return snapshot;
+            }
+            // A newer snapshot was coalesced in meanwhile; take that one instead
+        }
+    }
+
+    private void requeue(PlayerSnapshot snapshot) {
+        boolean[] added = new boolean[1];
+        pending.compute(snapshot.getUuid(), (key, newer) -> {
+            if (newer == null) {
+                added[0] = true;
+                return snapshot;
+            }
+            return newer.coalesce(snapshot);
+        });
+        if (added[0] && !queue.offer(snapshot.getUuid())) {
+            overflowed = true;
+        }
+    }
+
+    /**
+     * Holds back a snapshot that has failed too often, unless a newer one of the player is already waiting to be
+     * written, which it is merged into instead.
+     */
+    private void park(PlayerSnapshot snapshot) {
+        UUID uuid = snapshot.getUuid();
+        attempts.remove(uuid);
+        boolean[] held = new boolean[1];
+        pending.compute(uuid, (key, newer) -> {
+            if (newer != null) {
+                return newer.coalesce(snapshot);
+            }
+            parked.put(key, snapshot);
+            held[0] = true;
+            return null;
+        });
+        if (held[0]) {
+            logger.severe("Gave up writing player data for " + uuid + " after " + MAX_ATTEMPTS
+                    + " attempts. It is kept in memory and written again with the player's next change.");
+        }
+    }
+
+    private void written(List<PlayerSnapshot> snapshots) {
+        if (attempts.isEmpty()) {
+            return;
+        }
+        for (PlayerSnapshot snapshot : snapshots) {
+            attempts.remove(snapshot.getUuid());
+        }
+    }
+
+    private boolean writeNow(List<PlayerSnapshot> snapshots) {
+        long start = System.nanoTime();
+        try {
+            writer.write(snapshots);
+            written.addAndGet(snapshots.size());
+            batches.incrementAndGet();
+            if (!running) {
+                drained.addAll(snapshots);
+            }
+            return true;
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            String who = snapshots.size() == 1 ? snapshots.get(0).getUuid().toString() : snapshots.size() + " players";
+            logger.log(Level.SEVERE, "Failed to write player data for " + who + ": " + e.getMessage());
+            return false;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            lastWriteNanos.set(elapsed);
+            maxWriteNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    private void warnBackpressure() {
+        long now = System.currentTimeMillis();
+        if (now - lastBackpressureWarning > BACKPRESSURE_WARNING_INTERVAL_MILLIS) {
+            lastBackpressureWarning = now;
+            logger.warning("Player data write queue is full (" + queue.size() + " waiting, "
+                    + pending.size() + " pending). Storage is not keeping up with the server.");
+        }
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * @return The number of write attempts that failed. A failed batch is retried per player, so one bad record
+     *         counts more than once.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getLastWriteNanos() {
+        return lastWriteNanos.get();
+    }
+
+    public long getMaxWriteNanos() {
+        return maxWriteNanos.get();
+    }
+}
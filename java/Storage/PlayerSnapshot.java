@@ -0,0 +1,128 @@
+package com.whiteiverson.minecraft.playtime_plugin.Storage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * An immutable copy of a player's record, handed from the server thread to the persistence worker.
+ */
+public class PlayerSnapshot {
+    private final UUID uuid;
+    private final String username;
+    private final String joinDate;
+    private final double playtime;
+    private final double afkTime;
+    private final Map<String, Boolean> rewards;
+    private final Set<String> changedRewards;
+    // Time gained since the previous snapshot, or NaN if only the totals are known
+    private final double playtimeDelta;
+    private final double afkTimeDelta;
+
+    /**
+     * Constructs a PlayerSnapshot.
+     *
+     * @param uuid           the player's UUID
+     * @param username       the player's last known name
+     * @param joinDate       the join date in dd.MM.yyyy format
+     * @param playtime       total play time in seconds
+     * @param afkTime        total AFK time in seconds
+     * @param rewards        the claimed state of every known reward
+     * @param changedRewards the rewards whose state changed since the previous snapshot
+     */
+    public PlayerSnapshot(UUID uuid, String username, String joinDate, double playtime, double afkTime,
+                          Map<String, Boolean> rewards, Set<String> changedRewards) {
+        this(uuid, username, joinDate, playtime, afkTime, rewards, changedRewards, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Constructs a PlayerSnapshot that also knows how much time was gained since the previous one, so it can be
+     * written as an increment.
+     *
+     * @param playtimeDelta play time in seconds gained since the previous snapshot
+     * @param afkTimeDelta  AFK time in seconds gained since the previous snapshot
+     */
+    public PlayerSnapshot(UUID uuid, String username, String joinDate, double playtime, double afkTime,
+                          Map<String, Boolean> rewards, Set<String> changedRewards,
+                          double playtimeDelta, double afkTimeDelta) {
+        this.uuid = uuid;
+        this.username = username;
+        this.joinDate = joinDate;
+        this.playtime = playtime;
+        this.afkTime = afkTime;
+        this.rewards = Collections.unmodifiableMap(new HashMap<>(rewards));
+        this.changedRewards = Collections.unmodifiableSet(new HashSet<>(changedRewards));
+        this.playtimeDelta = playtimeDelta;
+        this.afkTimeDelta = afkTimeDelta;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getJoinDate() {
+        return joinDate;
+    }
+
+    public double getPlaytime() {
+        return playtime;
+    }
+
+    public double getAfkTime() {
+        return afkTime;
+    }
+
+    public Map<String, Boolean> getRewards() {
+        return rewards;
+    }
+
+    public boolean isRewardClaimed(String rewardName) {
+        return rewards.getOrDefault(rewardName, false);
+    }
+
+    public Set<String> getChangedRewards() {
+        return changedRewards;
+    }
+
+    /**
+     * @return whether the time gained since the previous snapshot is known
+     */
+    public boolean isDelta() {
+        return !Double.isNaN(playtimeDelta) && !Double.isNaN(afkTimeDelta);
+    }
+
+    public double getPlaytimeDelta() {
+        return playtimeDelta;
+    }
+
+    public double getAfkTimeDelta() {
+        return afkTimeDelta;
+    }
+
+    /**
+     * Combines this snapshot with an older one for the same player that has not been written yet.
+     * The newer values win, but reward changes from both are kept so none are skipped, and the time gained in
+     * both is added up. If either only knows the totals, so does the result.
+     *
+     * @param older the snapshot this one replaces
+     * @return the coalesced snapshot
+     */
+    public PlayerSnapshot coalesce(PlayerSnapshot older) {
+        if (older.changedRewards.isEmpty() && !isDelta()) {
+            return this;
+        }
+
+        Set<String> changed = new HashSet<>(older.changedRewards);
+        changed.addAll(changedRewards);
+        // NaN in either stays NaN
+        return new PlayerSnapshot(uuid, username, joinDate, playtime, afkTime, rewards, changed,
+                playtimeDelta + older.playtimeDelta, afkTimeDelta + older.afkTimeDelta);
+    }
+}
@@ -0,0 +1,40 @@
+package com.whiteiverson.minecraft.playtime_plugin.Storage;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A flat-file store that keeps every player's record in one place, used instead of the per-player YAML files
+ * when {@code storage.type} selects it.
+ */
+public interface PlayerStore {
+
+    boolean contains(UUID uuid);
+
+    int size();
+
+    Set<UUID> getUuids();
+
+    /**
+     * Reads a player's record.
+     *
+     * @param uuid The UUID of the player.
+     * @return The record, or null if the player is not stored.
+     */
+    PlayerSnapshot read(UUID uuid);
+
+    /**
+     * Writes a player's record, replacing the one stored.
+     *
+     * @param snapshot The record to write.
+     */
+    void write(PlayerSnapshot snapshot) throws IOException;
+
+    /**
+     * Makes every write so far durable.
+     */
+    void force() throws IOException;
+
+    void close() throws IOException;
+}
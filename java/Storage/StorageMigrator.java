@@ -0,0 +1,611 @@
+package com.whiteiverson.minecraft.playtime_plugin.Storage;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+import com.whiteiverson.minecraft.playtime_plugin.Database.DatabaseManager;
+import com.whiteiverson.minecraft.playtime_plugin.Database.UserDataManager;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.LibraryLoader;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.Translator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * StorageMigrator copies every player from one storage backend to another for {@code /ptmigrate}.
+ * <p>
+ * Players are read in pages in UUID order on a reader thread while the previous page is written, so reading and
+ * writing overlap. YAML files in a page are parsed in parallel, and each page is written to a database in one
+ * transaction. After every page the last UUID written is saved to {@code migration.checkpoint}, and a migration
+ * between the same two backends started again picks up after it.
+ * <p>
+ * Backends that are in use are shared with the plugin rather than opened a second time. When the target is the
+ * backend in use, players who are online or have a write queued are left alone there, as what the plugin holds
+ * for them is newer than the source. Players saved to the source while the migration runs may not be carried
+ * over, so it is best run while the server is quiet.
+ */
+public class StorageMigrator {
+
+    public static final List<String> BACKENDS = Collections.unmodifiableList(
+            Arrays.asList("yaml", "binary", "mvstore", "mysql", "sqlite"));
+
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+
+    private final Main main;
+    private final File checkpointFile;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public StorageMigrator(Main main) {
+        this.main = main;
+        this.checkpointFile = new File(main.getDataFolder(), "migration.checkpoint");
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Starts copying every player from one backend to another. Must be called on the server thread.
+     *
+     * @param from   The backend to read, one of {@link #BACKENDS}.
+     * @param to     The backend to write, one of {@link #BACKENDS}.
+     * @param sender Who to report progress to.
+     * @return False if a migration is already running.
+     */
+    public boolean start(String from, String to, CommandSender sender) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        // Online players' latest play time is queued so the source is as current as it can be
+        main.getUserHandler().flushSessions();
+
+        int batchSize = Math.max(1, main.getConfig().getInt("migrate.batch-size", 500));
+        int threads = main.getConfig().getInt("migrate.threads", 0);
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        Thread thread = new Thread(() -> {
+            try {
+                runMigration(from, to, sender, batchSize, parallelism);
+            } finally {
+                running.set(false);
+            }
+        }, "PlayTime-Migrate");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void runMigration(String from, String to, CommandSender sender, int batchSize, int parallelism) {
+        ForkJoinPool parsers = new ForkJoinPool(parallelism);
+        ExecutorService reader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PlayTime-Migrate-Reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Backend source = null;
+        Backend target = null;
+
+        try {
+            source = open(from, parsers);
+            target = open(to, parsers);
+
+            Properties checkpoint = readCheckpoint(from, to);
+            String last = checkpoint.getProperty("last", "");
+            long migrated = Long.parseLong(checkpoint.getProperty("migrated", "0"));
+            if (!last.isEmpty()) {
+                report(sender, "migrate.resuming", from, to, migrated);
+            } else {
+                report(sender, "migrate.started", from, to, parallelism);
+            }
+
+            long start = System.nanoTime();
+            long lastReport = System.currentTimeMillis();
+            long copied = 0;
+            Backend pageSource = source;
+            String pageAfter = last;
+            Future<Page> next = reader.submit(() -> pageSource.read(pageAfter, batchSize));
+
+            while (true) {
+                Page page = next.get();
+                if (page.last == null) {
+                    break;
+                }
+
+                // The next page is read while this one is written
+                Backend nextSource = source;
+                next = reader.submit(() -> nextSource.read(page.last, batchSize));
+
+                if (!page.records.isEmpty()) {
+                    target.write(page.records);
+                }
+                copied += page.records.size();
+                migrated += page.records.size();
+                writeCheckpoint(from, to, page.last, migrated);
+
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= REPORT_INTERVAL_MILLIS) {
+                    lastReport = now;
+                    report(sender, "migrate.progress", migrated, rate(copied, start));
+                }
+
+                if (!main.isEnabled()) {
+                    report(sender, "migrate.paused", from, to);
+                    return;
+                }
+            }
+
+            Files.deleteIfExists(checkpointFile.toPath());
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+            report(sender, "migrate.finished", from, to, migrated, copied, source.getFailed(), target.getSkipped(),
+                    elapsedMillis, rate(copied, start));
+        } catch (ExecutionException e) {
+            fail(sender, from, to, e.getCause());
+        } catch (IOException | SQLException | RuntimeException e) {
+            fail(sender, from, to, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reader.shutdownNow();
+            parsers.shutdown();
+            if (source != null) {
+                source.close();
+            }
+            if (target != null) {
+                target.close();
+            }
+        }
+    }
+
+    private void fail(CommandSender sender, String from, String to, Throwable e) {
+        report(sender, "migrate.stopped", from, to, e.getMessage());
+    }
+
+    private static long rate(long records, long startNanos) {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        return records * 1_000_000_000L / elapsedNanos;
+    }
+
+    private Properties readCheckpoint(String from, String to) throws IOException {
+        Properties checkpoint = new Properties();
+        if (checkpointFile.exists()) {
+            try (InputStream in = new FileInputStream(checkpointFile)) {
+                checkpoint.load(in);
+            }
+        }
+
+        // A checkpoint of a different migration does not apply
+        if (!from.equals(checkpoint.getProperty("from")) || !to.equals(checkpoint.getProperty("to"))) {
+            checkpoint.clear();
+        }
+        return checkpoint;
+    }
+
+    private void writeCheckpoint(String from, String to, String last, long migrated) throws IOException {
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty("from", from);
+        checkpoint.setProperty("to", to);
+        checkpoint.setProperty("last", last);
+        checkpoint.setProperty("migrated", String.valueOf(migrated));
+
+        File tempFile = new File(checkpointFile.getParentFile(), checkpointFile.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            checkpoint.store(out, "PlayTime /ptmigrate progress");
+        }
+        Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void report(CommandSender sender, String key, Object... args) {
+        Translator translator = main.getTranslator();
+        main.getLogger().info(String.format(translator.getConsoleTranslation(key), args));
+        if (sender != null && !(sender instanceof ConsoleCommandSender)) {
+            Bukkit.getScheduler().runTask(main, () -> sender.sendMessage(String.format(translator.getTranslation(key, sender), args)));
+        }
+    }
+
+    /**
+     * Opens a backend, sharing the plugin's own if it is the one in use.
+     */
+    private Backend open(String type, ExecutorService parsers) throws IOException, SQLException {
+        DatabaseManager activeDatabase = main.getDatabaseManager();
+        boolean databaseActive = activeDatabase != null && activeDatabase.isEnabled() && activeDatabase.isConnected();
+        PlayerStore activeStore = main.getUserHandler().getPlayerStore();
+
+        switch (type) {
+            case "yaml":
+                return new YamlBackend(new File(main.getDataFolder(), "data"), parsers, !databaseActive && activeStore == null);
+            case "binary":
+                if (activeStore instanceof BinaryPlayerStore) {
+                    return new StoreBackend(activeStore, false);
+                }
+                return new StoreBackend(BinaryPlayerStore.open(new File(main.getDataFolder(), "data/players.dat"), main.getLogger()), true);
+            case "mvstore":
+                if (activeStore instanceof MVStorePlayerStore) {
+                    return new StoreBackend(activeStore, false);
+                }
+                if (!new LibraryLoader(main.getDataFolder(), main.getLogger()).loadMVStore()) {
+                    throw new IOException("H2 MVStore could not be loaded");
+                }
+                return new StoreBackend(MVStorePlayerStore.open(new File(main.getDataFolder(), "data/players.mv.db"),
+                        main.getConfig().getInt("storage.mvstore.cache-size", 16),
+                        main.getConfig().getInt("storage.mvstore.commit-delay", 1000), main.getLogger()), true);
+            case "mysql":
+            case "sqlite":
+                if (databaseActive && activeDatabase.getDialect().getName().equalsIgnoreCase(type)) {
+                    return new DatabaseBackend(activeDatabase, main.getUserDataManager(), false);
+                }
+                return openDatabase(type);
+            default:
+                throw new IllegalArgumentException("Unknown storage backend " + type);
+        }
+    }
+
+    /**
+     * Connects to a database that is configured in config.yml but not in use, and brings its schema up to date.
+     */
+    private Backend openDatabase(String type) throws SQLException {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(main.getConfig().saveToString());
+        } catch (InvalidConfigurationException e) {
+            throw new SQLException("Could not copy the database settings: " + e.getMessage(), e);
+        }
+        config.set("database.enabled", true);
+        config.set("database.type", type);
+
+        DatabaseManager databaseManager = new DatabaseManager(config, main.getLogger(), main.getDataFolder(), main.getMetrics());
+        databaseManager.connect();
+        try {
+            // Runs the schema update and any backfill here, as the migration cannot read or write before it is done
+            databaseManager.getMigrator().run();
+            databaseManager.awaitReady();
+        } catch (SQLException e) {
+            databaseManager.close();
+            throw e;
+        }
+        return new DatabaseBackend(databaseManager, new UserDataManager(databaseManager, main.getMetrics()), true);
+    }
+
+    /**
+     * A page of players in UUID order.
+     */
+    private static class Page {
+        private final List<PlayerSnapshot> records;
+        // The last UUID looked at, even if its record could not be read; null when there are no more players
+        private final String last;
+
+        private Page(List<PlayerSnapshot> records, String last) {
+            this.records = records;
+            this.last = last;
+        }
+    }
+
+    private abstract class Backend {
+        private final boolean active;
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+
+        private Backend(boolean active) {
+            this.active = active;
+        }
+
+        /**
+         * @param after The UUID to start after, or an empty string to start at the beginning.
+         * @param limit The most players to read.
+         */
+        abstract Page read(String after, int limit) throws IOException, SQLException;
+
+        abstract void writeRecords(List<PlayerSnapshot> records) throws IOException, SQLException;
+
+        abstract void close();
+
+        final void write(List<PlayerSnapshot> records) throws IOException, SQLException {
+            if (active) {
+                records = withoutLivePlayers(records);
+                if (records.isEmpty()) {
+                    return;
+                }
+            }
+            writeRecords(records);
+
+            // Players that were written to the storage in use are read back from it when they are next needed
+            if (active) {
+                List<UUID> uuids = new ArrayList<>(records.size());
+                for (PlayerSnapshot record : records) {
+                    uuids.add(record.getUuid());
+                }
+                Bukkit.getScheduler().runTask(main, () -> main.getUserHandler().forgetCachedUsers(uuids));
+            }
+        }
+
+        /**
+         * Leaves out players whose session or queued write is newer than the copy, so their row in the storage in
+         * use is not overwritten with it.
+         */
+        private List<PlayerSnapshot> withoutLivePlayers(List<PlayerSnapshot> records) {
+            List<PlayerSnapshot> offline = new ArrayList<>(records.size());
+            for (PlayerSnapshot record : records) {
+                if (main.getUserHandler().getSession(record.getUuid()) != null
+                        || main.getPersistenceExecutor().getPending(record.getUuid()) != null) {
+                    skipped.incrementAndGet();
+                } else {
+                    offline.add(record);
+                }
+            }
+            return offline;
+        }
+
+        /**
+         * Takes a player's record from the persistence queue instead, if a newer one is waiting to be written here.
+         */
+        PlayerSnapshot latest(PlayerSnapshot stored) {
+            if (!active) {
+                return stored;
+            }
+            PlayerSnapshot pending = main.getPersistenceExecutor().getPending(stored.getUuid());
+            return pending != null ? pending : stored;
+        }
+
+        int getFailed() {
+            return failed.get();
+        }
+
+        int getSkipped() {
+            return skipped.get();
+        }
+
+        void fileFailed(String name, Exception e) {
+            failed.incrementAndGet();
+            if (main.getConfig().getBoolean("logging.debug", false)) {
+                main.getLogger().warning("Skipping " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lists the UUIDs of a flat-file backend once, sorted, and pages through them.
+     */
+    private abstract class SortedBackend extends Backend {
+        private List<String> uuids;
+
+        private SortedBackend(boolean active) {
+            super(active);
+        }
+
+        abstract List<String> listUuids();
+
+        abstract List<PlayerSnapshot> readAll(List<String> uuids) throws IOException;
+
+        @Override
+        final Page read(String after, int limit) throws IOException {
+            if (uuids == null) {
+                uuids = listUuids();
+                Collections.sort(uuids);
+            }
+
+            int from = Collections.binarySearch(uuids, after);
+            from = from >= 0 ? from + 1 : -from - 1;
+            if (from >= uuids.size()) {
+                return new Page(Collections.emptyList(), null);
+            }
+
+            List<String> page = uuids.subList(from, Math.min(uuids.size(), from + limit));
+            List<PlayerSnapshot> records = new ArrayList<>(page.size());
+            for (PlayerSnapshot record : readAll(page)) {
+                if (record != null) {
+                    records.add(latest(record));
+                }
+            }
+            return new Page(records, page.get(page.size() - 1));
+        }
+    }
+
+    /**
+     * The per-player {@code data/<uuid>.yml} files, read and written in parallel.
+     */
+    private class YamlBackend extends SortedBackend {
+        private final File userDataFolder;
+        private final ExecutorService workers;
+
+        private YamlBackend(File userDataFolder, ExecutorService workers, boolean active) {
+            super(active);
+            this.userDataFolder = userDataFolder;
+            this.workers = workers;
+        }
+
+        @Override
+        List<String> listUuids() {
+            List<String> uuids = new ArrayList<>();
+            File[] files = userDataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName().substring(0, file.getName().length() - ".yml".length());
+                    try {
+                        uuids.add(UUID.fromString(name).toString());
+                    } catch (IllegalArgumentException e) {
+                        // Not a user file
+                    }
+                }
+            }
+            return uuids;
+        }
+
+        @Override
+        List<PlayerSnapshot> readAll(List<String> uuids) throws IOException {
+            List<Callable<PlayerSnapshot>> tasks = new ArrayList<>(uuids.size());
+            for (String uuid : uuids) {
+                tasks.add(() -> {
+                    File userFile = new File(userDataFolder, uuid + ".yml");
+                    try {
+                        return YamlStoreConverter.fromConfig(UUID.fromString(uuid), Translator.loadYamlWithBomHandlingStatic(userFile));
+                    } catch (RuntimeException e) {
+                        fileFailed(userFile.getName(), e);
+                        return null;
+                    }
+                });
+            }
+            return collect(tasks);
+        }
+
+        @Override
+        void writeRecords(List<PlayerSnapshot> records) throws IOException {
+            List<Callable<PlayerSnapshot>> tasks = new ArrayList<>(records.size());
+            for (PlayerSnapshot record : records) {
+                tasks.add(() -> {
+                    // Write to a temporary file first so a crash mid-write never leaves a truncated user file
+                    File userFile = new File(userDataFolder, record.getUuid() + ".yml");
+                    File tempFile = new File(userDataFolder, record.getUuid() + ".yml.tmp");
+                    YamlStoreConverter.toConfig(record).save(tempFile);
+                    Files.move(tempFile.toPath(), userFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    return record;
+                });
+            }
+            collect(tasks);
+        }
+
+        private List<PlayerSnapshot> collect(List<Callable<PlayerSnapshot>> tasks) throws IOException {
+            try {
+                List<PlayerSnapshot> results = new ArrayList<>(tasks.size());
+                for (Future<PlayerSnapshot> future : workers.invokeAll(tasks)) {
+                    results.add(future.get());
+                }
+                return results;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        @Override
+        void close() {
+        }
+    }
+
+    /**
+     * A binary or MVStore player store.
+     */
+    private class StoreBackend extends SortedBackend {
+        private final PlayerStore store;
+        private final boolean owned;
+
+        private StoreBackend(PlayerStore store, boolean owned) {
+            // A store the plugin has open is the one in use
+            super(!owned);
+            this.store = store;
+            this.owned = owned;
+        }
+
+        @Override
+        List<String> listUuids() {
+            List<String> uuids = new ArrayList<>();
+            for (UUID uuid : store.getUuids()) {
+                uuids.add(uuid.toString());
+            }
+            return uuids;
+        }
+
+        @Override
+        List<PlayerSnapshot> readAll(List<String> uuids) {
+            List<PlayerSnapshot> records = new ArrayList<>(uuids.size());
+            for (String uuid : uuids) {
+                records.add(store.read(UUID.fromString(uuid)));
+            }
+            return records;
+        }
+
+        @Override
+        void writeRecords(List<PlayerSnapshot> records) throws IOException {
+            for (PlayerSnapshot record : records) {
+                store.write(record);
+            }
+            store.force();
+        }
+
+        @Override
+        void close() {
+            if (!owned) {
+                return;
+            }
+            try {
+                store.close();
+            } catch (IOException e) {
+                main.getLogger().severe("Failed to close player store: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A MySQL or SQLite database, paged by UUID and written one transaction per page.
+     */
+    private class DatabaseBackend extends Backend {
+        private final DatabaseManager databaseManager;
+        private final UserDataManager userDataManager;
+        private final boolean owned;
+
+        private DatabaseBackend(DatabaseManager databaseManager, UserDataManager userDataManager, boolean owned) {
+            super(!owned);
+            this.databaseManager = databaseManager;
+            this.userDataManager = userDataManager;
+            this.owned = owned;
+        }
+
+        @Override
+        Page read(String after, int limit) throws SQLException {
+            List<PlayerSnapshot> records = userDataManager.loadUsers(after, limit);
+            if (records.isEmpty()) {
+                return new Page(records, null);
+            }
+
+            List<PlayerSnapshot> latest = new ArrayList<>(records.size());
+            for (PlayerSnapshot record : records) {
+                latest.add(latest(record));
+            }
+            return new Page(latest, records.get(records.size() - 1).getUuid().toString());
+        }
+
+        @Override
+        void writeRecords(List<PlayerSnapshot> records) throws SQLException {
+            // Every reward is written, not only the ones that changed, so the copy matches the source
+            List<PlayerSnapshot> complete = new ArrayList<>(records.size());
+            for (PlayerSnapshot record : records) {
+                complete.add(new PlayerSnapshot(record.getUuid(), record.getUsername(), record.getJoinDate(),
+                        record.getPlaytime(), record.getAfkTime(), record.getRewards(), record.getRewards().keySet()));
+            }
+            userDataManager.saveUsers(complete);
+        }
+
+        @Override
+        void close() {
+            if (owned) {
+                databaseManager.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.whiteiverson.minecraft.playtime_plugin.Storage;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.Translator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WorldStatsImporter imports vanilla play time from {@code <world>/stats/<uuid>.json} for every player at once.
+ * <p>
+ * Files are parsed in parallel on a fork-join pool with a streaming reader that stops as soon as the
+ * play time is found, and results are written to the active storage in batches. Players who already have
+ * play time recorded are left untouched, matching the lazy lookup done for players on join.
+ * <p>
+ * Names are read from the server's {@code usercache.json} on the import thread. A player missing from it is
+ * imported under a placeholder name, which is replaced when they next join.
+ */
+public class WorldStatsImporter {
+
+    private static final int SPLIT_THRESHOLD = 64;
+
+    private final Main main;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private PlayerStore playerStore;
+
+    public WorldStatsImporter(Main main) {
+        this.main = main;
+    }
+
+    /**
+     * Reads the play time of a single stats file without building a tree of the whole document.
+     * Understands the 1.17+ {@code minecraft:play_time}, the 1.13-1.16 {@code minecraft:play_one_minute}
+     * and the pre-1.13 flat {@code stat.playOneMinute} layouts.
+     *
+     * @param statsFile The stats file.
+     * @return The play time in ticks, or -1 if the file has none.
+     */
+    public static long readPlayTimeTicks(File statsFile) throws IOException {
+        try (BufferedReader fileReader = Files.newBufferedReader(statsFile.toPath(), StandardCharsets.UTF_8);
+             JsonReader reader = new JsonReader(fileReader)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("stats") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    long ticks = readCustomStats(reader);
+                    if (ticks >= 0) {
+                        return ticks;
+                    }
+                } else if (name.equals("stat.playOneMinute")) {
+                    return reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed stats file " + statsFile.getName() + ": " + e.getMessage(), e);
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the name of every player in the server's user cache, a JSON array of {@code name}, {@code uuid} and
+     * {@code expiresOn} objects.
+     *
+     * @param userCacheFile The {@code usercache.json} file.
+     * @return The names by UUID, empty if the file does not exist.
+     */
+    static Map<UUID, String> readUserCache(File userCacheFile) throws IOException {
+        Map<UUID, String> names = new HashMap<>();
+        if (!userCacheFile.isFile()) {
+            return names;
+        }
+
+        try (BufferedReader fileReader = Files.newBufferedReader(userCacheFile.toPath(), StandardCharsets.UTF_8);
+             JsonReader reader = new JsonReader(fileReader)) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String name = null;
+                String uuid = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (field.equals("name") && reader.peek() == JsonToken.STRING) {
+                        name = reader.nextString();
+                    } else if (field.equals("uuid") && reader.peek() == JsonToken.STRING) {
+                        uuid = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (name != null && uuid != null) {
+                    names.put(UUID.fromString(uuid), name);
+                }
+            }
+            reader.endArray();
+        }
+        return names;
+    }
+
+    private static long readCustomStats(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("minecraft:custom") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String stat = reader.nextName();
+                    if (stat.equals("minecraft:play_time") || stat.equals("minecraft:play_one_minute")) {
+                        return reader.nextLong();
+                    }
+                    reader.skipValue();
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return -1;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Starts an import of every stats file in the given folder. Must be called on the server thread, which reads
+     * the settings before the work moves to background threads.
+     *
+     * @param statsDir The world's stats folder.
+     * @param sender   Who to report progress to.
+     * @return False if an import is already running.
+     */
+    public boolean start(File statsDir, CommandSender sender) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        File userCacheFile = new File(Bukkit.getWorldContainer(), "usercache.json");
+        boolean useDatabase = main.getDatabaseManager() != null && main.getDatabaseManager().isEnabled();
+        File userDataFolder = new File(main.getDataFolder(), "data");
+        playerStore = main.getUserHandler().getPlayerStore();
+        int batchSize = Math.max(1, main.getConfig().getInt("import.batch-size", 500));
+        int threads = main.getConfig().getInt("import.threads", 0);
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        Thread thread = new Thread(() -> {
+            try {
+                runImport(statsDir, sender, userCacheFile, useDatabase, userDataFolder, batchSize, parallelism);
+            } finally {
+                running.set(false);
+            }
+        }, "PlayTime-StatsImport");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void runImport(File statsDir, CommandSender sender, File userCacheFile, boolean useDatabase,
+                           File userDataFolder, int batchSize, int parallelism) {
+        long start = System.nanoTime();
+        File[] files = statsDir.listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null || files.length == 0) {
+            report(sender, "import.no_files", statsDir.getAbsolutePath());
+            return;
+        }
+
+        Map<UUID, String> names = new HashMap<>();
+        try {
+            names = readUserCache(userCacheFile);
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            main.getLogger().warning("Could not read player names from " + userCacheFile.getName()
+                    + ", imported players keep a placeholder name until they join: " + e.getMessage());
+        }
+
+        report(sender, "import.started", files.length, parallelism);
+
+        // Parse phase: fork-join over the file list
+        Progress progress = new Progress(sender, files.length);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<PlayerSnapshot> records;
+        try {
+            records = pool.invoke(new ParseTask(files, 0, files.length, names, useDatabase, userDataFolder, progress));
+        } finally {
+            pool.shutdown();
+        }
+
+        // Write phase: one transaction (or group of files) per batch
+        int imported = 0;
+        int batches = (records.size() + batchSize - 1) / batchSize;
+        for (int batch = 0; batch < batches; batch++) {
+            List<PlayerSnapshot> slice = records.subList(batch * batchSize, Math.min(records.size(), (batch + 1) * batchSize));
+            try {
+                imported += useDatabase
+                        ? main.getUserDataManager().importPlaytimes(slice)
+                        : writeFiles(slice, userDataFolder);
+            } catch (SQLException | IOException e) {
+                main.getLogger().severe(String.format(main.getTranslator().getConsoleTranslation("import.batch_failed"),
+                        batch + 1, e.getMessage()));
+            }
+
+            if (batches > 1) {
+                report(sender, "import.batch_written", batch + 1, batches);
+            }
+        }
+
+        // Drop cached copies so the imported values are read back from storage
+        List<UUID> importedUuids = new ArrayList<>();
+        for (PlayerSnapshot record : records) {
+            importedUuids.add(record.getUuid());
+        }
+        Bukkit.getScheduler().runTask(main, () -> main.getUserHandler().forgetCachedUsers(importedUuids));
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+        report(sender, "import.finished", imported, files.length, progress.failed.get(), elapsedMillis);
+    }
+
+    private int writeFiles(List<PlayerSnapshot> records, File userDataFolder) throws IOException {
+        int written = 0;
+        for (PlayerSnapshot record : records) {
+            if (playerStore != null) {
+                if (writeStore(record)) {
+                    written++;
+                }
+                continue;
+            }
+
+            File userFile = new File(userDataFolder, record.getUuid() + ".yml");
+            YamlConfiguration userConfig = userFile.exists()
+                    ? (YamlConfiguration) Translator.loadYamlWithBomHandlingStatic(userFile)
+                    : new YamlConfiguration();
+
+            if (userConfig.getDouble("playtime", 0.0) > 0) {
+                continue; // Recorded by the plugin since the file was read
+            }
+
+            if (!userConfig.contains("username")) {
+                userConfig.set("username", record.getUsername());
+            }
+            if (!userConfig.contains("joined")) {
+                userConfig.set("joined", record.getJoinDate());
+            }
+            userConfig.set("playtime", record.getPlaytime());
+
+            File tempFile = new File(userDataFolder, record.getUuid() + ".yml.tmp");
+            userConfig.save(tempFile);
+            Files.move(tempFile.toPath(), userFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            written++;
+        }
+        return written;
+    }
+
+    private boolean writeStore(PlayerSnapshot record) throws IOException {
+        PlayerSnapshot stored = playerStore.read(record.getUuid());
+        if (stored == null) {
+            playerStore.write(record);
+            return true;
+        }
+        if (stored.getPlaytime() > 0) {
+            return false; // Recorded by the plugin since the store was read
+        }
+
+        playerStore.write(new PlayerSnapshot(record.getUuid(),
+                stored.getUsername() != null ? stored.getUsername() : record.getUsername(),
+                stored.getJoinDate() != null ? stored.getJoinDate() : record.getJoinDate(),
+                record.getPlaytime(), stored.getAfkTime(), stored.getRewards(), Collections.emptySet()));
+        return true;
+    }
+
+    private void report(CommandSender sender, String key, Object... args) {
+        Translator translator = main.getTranslator();
+        main.getLogger().info(String.format(translator.getConsoleTranslation(key), args));
+        if (sender != null && !(sender instanceof ConsoleCommandSender)) {
+            Bukkit.getScheduler().runTask(main, () -> sender.sendMessage(String.format(translator.getTranslation(key, sender), args)));
+        }
+    }
+
+    /**
+     * Tracks parsed files and reports every ten percent.
+     */
+    private class Progress {
+        private final CommandSender sender;
+        private final int total;
+        private final AtomicInteger parsed = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        private Progress(CommandSender sender, int total) {
+            this.sender = sender;
+            this.total = total;
+        }
+
+        private void fileDone() {
+            int done = parsed.incrementAndGet();
+            int step = Math.max(1, total / 10);
+            if (done % step == 0 && done < total) {
+                report(sender, "import.parsed", done, total, done * 100L / total);
+            }
+        }
+    }
+
+    /**
+     * Splits the file list in halves until it is small enough to parse directly.
+     */
+    private class ParseTask extends RecursiveTask<List<PlayerSnapshot>> {
+        private final File[] files;
+        private final int from;
+        private final int to;
+        private final Map<UUID, String> names;
+        private final boolean useDatabase;
+        private final File userDataFolder;
+        private final Progress progress;
+
+        private ParseTask(File[] files, int from, int to, Map<UUID, String> names, boolean useDatabase,
+                          File userDataFolder, Progress progress) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.names = names;
+            this.useDatabase = useDatabase;
+            this.userDataFolder = userDataFolder;
+            this.progress = progress;
+        }
+
+        @Override
+        protected List<PlayerSnapshot> compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                ParseTask left = new ParseTask(files, from, middle, names, useDatabase, userDataFolder, progress);
+                ParseTask right = new ParseTask(files, middle, to, names, useDatabase, userDataFolder, progress);
+                left.fork();
+                List<PlayerSnapshot> result = new ArrayList<>(right.compute());
+                result.addAll(left.join());
+                return result;
+            }
+
+            List<PlayerSnapshot> result = new ArrayList<>();
+            for (File file : Arrays.asList(files).subList(from, to)) {
+                try {
+                    PlayerSnapshot record = parse(file);
+                    if (record != null) {
+                        result.add(record);
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    progress.failed.incrementAndGet();
+                    if (main.getConfig().getBoolean("logging.debug", false)) {
+                        main.getLogger().warning("Skipping stats file " + file.getName() + ": " + e.getMessage());
+                    }
+                }
+                progress.fileDone();
+            }
+            return result;
+        }
+
+        private PlayerSnapshot parse(File file) throws IOException {
+            UUID uuid = UUID.fromString(file.getName().substring(0, file.getName().length() - ".json".length()));
+
+            // Online and recently saved players are owned by their session and the persistence queue
+            if (main.getUserHandler().getSession(uuid) != null || main.getPersistenceExecutor().getPending(uuid) != null) {
+                return null;
+            }
+
+            // Flat-file users that already have play time are skipped before parsing; the database checks on write
+            if (!useDatabase && playerStore != null) {
+                PlayerSnapshot stored = playerStore.read(uuid);
+                if (stored != null && stored.getPlaytime() > 0) {
+                    return null;
+                }
+            } else if (!useDatabase) {
+                File userFile = new File(userDataFolder, uuid + ".yml");
+                if (userFile.exists() && Translator.loadYamlWithBomHandlingStatic(userFile).getDouble("playtime", 0.0) > 0) {
+                    return null;
+                }
+            }
+
+            long ticks = readPlayTimeTicks(file);
+            if (ticks <= 0) {
+                return null;
+            }
+
+            String username = names.get(uuid);
+            if (username == null) {
+                username = uuid.toString().substring(0, 16);
+            }
+            String joinDate = new SimpleDateFormat("dd.MM.yyyy").format(new Date(firstPlayed(file)));
+
+            return new PlayerSnapshot(uuid, username, joinDate, ticks / 20.0, 0.0,
+                    Collections.emptyMap(), Collections.emptySet());
+        }
+    }
+
+    /**
+     * The stats file is created on the player's first save, so its creation time stands in for the first-played
+     * date without asking the Bukkit API off the server thread. Where the file system keeps no creation time,
+     * today is used, as for a player first seen on join.
+     */
+    private static long firstPlayed(File statsFile) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(statsFile.toPath(), BasicFileAttributes.class);
+            if (!attributes.creationTime().equals(attributes.lastModifiedTime())) {
+                return attributes.creationTime().toMillis();
+            }
+        } catch (IOException e) {
+            // Fall through to today
+        }
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,107 @@
+package com.whiteiverson.minecraft.playtime_plugin.Storage;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.Translator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Copies the per-player {@code data/<uuid>.yml} files into a {@link PlayerStore}.
+ * The YAML files are left in place, so switching back to YAML storage still finds the data as it was.
+ * Players already in the store are skipped, so a conversion that was cut short resumes where it stopped.
+ */
+public final class YamlStoreConverter {
+
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+
+    private YamlStoreConverter() {
+    }
+
+    /**
+     * Converts every user file that is not in the store yet.
+     *
+     * @param userDataFolder The folder with the user files.
+     * @param store          The store to write to.
+     * @param logger         Where to report progress and files that could not be converted.
+     * @return The number of players converted.
+     * @throws IOException if a file could not be converted; the others are still in the store.
+     */
+    public static int convert(File userDataFolder, PlayerStore store, Logger logger) throws IOException {
+        File[] files = userDataFolder.listFiles((dir, name) -> name.endsWith(".yml"));
+        if (files == null) {
+            return 0;
+        }
+
+        int converted = 0;
+        int failed = 0;
+        long lastReport = System.currentTimeMillis();
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            long now = System.currentTimeMillis();
+            if (now - lastReport >= REPORT_INTERVAL_MILLIS) {
+                lastReport = now;
+                logger.info("Converting YAML user files: " + i + "/" + files.length + "...");
+            }
+
+            UUID uuid;
+            try {
+                uuid = UUID.fromString(file.getName().substring(0, file.getName().length() - ".yml".length()));
+            } catch (IllegalArgumentException e) {
+                continue; // Not a user file
+            }
+
+            if (store.contains(uuid)) {
+                continue;
+            }
+
+            try {
+                store.write(fromConfig(uuid, Translator.loadYamlWithBomHandlingStatic(file)));
+                converted++;
+            } catch (IOException e) {
+                logger.severe("Failed to convert " + file.getName() + ": " + e.getMessage());
+                failed++;
+            }
+        }
+
+        if (failed > 0) {
+            throw new IOException(failed + " of " + files.length + " YAML user files could not be converted");
+        }
+        return converted;
+    }
+
+    static YamlConfiguration toConfig(PlayerSnapshot snapshot) {
+        YamlConfiguration userConfig = new YamlConfiguration();
+        userConfig.set("username", snapshot.getUsername());
+        userConfig.set("joined", snapshot.getJoinDate());
+        userConfig.set("playtime", snapshot.getPlaytime());
+        userConfig.set("afk-time", snapshot.getAfkTime());
+        snapshot.getRewards().forEach((rewardName, claimed) -> userConfig.set("rewards.claimed." + rewardName, claimed));
+        return userConfig;
+    }
+
+    static PlayerSnapshot fromConfig(UUID uuid, FileConfiguration userConfig) {
+        Map<String, Boolean> rewards = new HashMap<>();
+        ConfigurationSection claimed = userConfig.getConfigurationSection("rewards.claimed");
+        if (claimed != null) {
+            for (String rewardName : claimed.getKeys(false)) {
+                rewards.put(rewardName, claimed.getBoolean(rewardName));
+            }
+        }
+
+        return new PlayerSnapshot(uuid,
+                userConfig.getString("username"),
+                userConfig.getString("joined"),
+                userConfig.getDouble("playtime", 0.0),
+                userConfig.getDouble("afk-time", 0.0),
+                rewards, Collections.emptySet());
+    }
+}
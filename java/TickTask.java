@@ -1,24 +1,56 @@
 package com.whiteiverson.minecraft.playtime_plugin;
 
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
 /**
  * TickTask is a Runnable that processes player data at regular intervals.
+ * <p>
+ * It runs every tick and spreads online players over a number of buckets by their UUID,
+ * processing one bucket per tick so the cost is flat instead of one spike per second.
  */
 public class TickTask implements Runnable {
-	
+
 	private final Main main;
-	
+	private int bucketCount;
+	private int tick;
+	private List<List<Player>> buckets = new ArrayList<>();
+
+	// Per-bucket cost, for spotting uneven buckets
+	private long[] lastNanos = new long[0];
+	private long[] maxNanos = new long[0];
+	private long[] totalNanos = new long[0];
+	private long[] runs = new long[0];
+	private int[] playerCounts = new int[0];
+	private final LatencyHistogram bucketLatency;
+
 	public TickTask() {
 		this.main = Main.getInstance();
+		this.bucketLatency = main.getMetrics().histogram("tick.bucket");
 	}
-    
+
     /**
      * Executes the task to process players.
-     * This method is called by the Bukkit scheduler.
+     * This method is called by the Bukkit scheduler every tick.
      */
     @Override
     public void run() {
         try {
-            Main.getInstance().getPlayTimeHandler().processPlayers();
+            main.getUserHandler().getActivityTracker().tick();
+
+            if (tick == 0) {
+                startCycle();
+            }
+
+            int bucket = tick;
+            tick = (tick + 1) % bucketCount;
+            processBucket(bucket);
         } catch (Exception e) {
             // Log any exceptions that occur during player processing
         	if (main.getConfig().getBoolean("logging.debug", false)) {
@@ -27,4 +59,92 @@ public class TickTask implements Runnable {
         	}
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Assigns the currently online players to buckets. Players who join mid-cycle are picked up by the next cycle.
+     */
+    private void startCycle() {
+        PlayTimeHandler playTimeHandler = main.getPlayTimeHandler();
+        playTimeHandler.checkStorage();
+
+        int count = playTimeHandler.getTickBuckets();
+        if (count != bucketCount) {
+            resize(count);
+        }
+
+        for (List<Player> bucket : buckets) {
+            bucket.clear();
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            buckets.get(bucketOf(player.getUniqueId(), bucketCount)).add(player);
+        }
+    }
+
+    private void processBucket(int bucket) {
+        long start = System.nanoTime();
+        List<Player> players = buckets.get(bucket);
+
+        for (Player player : players) {
+            // Skip players that left since the cycle started
+            if (player.isOnline()) {
+                main.getPlayTimeHandler().processPlayer(player);
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        bucketLatency.record(elapsed);
+        lastNanos[bucket] = elapsed;
+        maxNanos[bucket] = Math.max(maxNanos[bucket], elapsed);
+        totalNanos[bucket] += elapsed;
+        runs[bucket]++;
+        playerCounts[bucket] = players.size();
+    }
+
+    private void resize(int count) {
+        bucketCount = count;
+        buckets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        resetStats();
+    }
+
+    /**
+     * Maps a UUID to a bucket. The halves are mixed first, since version 4 UUIDs keep fixed bits in the same places.
+     */
+    static int bucketOf(UUID uuid, int bucketCount) {
+        long hash = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return (int) Math.floorMod(hash, (long) bucketCount);
+    }
+
+    public void resetStats() {
+        lastNanos = new long[bucketCount];
+        maxNanos = new long[bucketCount];
+        totalNanos = new long[bucketCount];
+        runs = new long[bucketCount];
+        playerCounts = new int[bucketCount];
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public long getLastNanos(int bucket) {
+        return lastNanos[bucket];
+    }
+
+    public long getMaxNanos(int bucket) {
+        return maxNanos[bucket];
+    }
+
+    public long getAverageNanos(int bucket) {
+        return runs[bucket] == 0 ? 0 : totalNanos[bucket] / runs[bucket];
+    }
+
+    public int getPlayerCount(int bucket) {
+        return playerCounts[bucket];
+    }
+}
@@ -2,33 +2,56 @@ package com.whiteiverson.minecraft.playtime_plugin;
 
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
 
+import com.whiteiverson.minecraft.playtime_plugin.Storage.BinaryPlayerStore;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.MVStorePlayerStore;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.PlayerSnapshot;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.PlayerStore;
+import com.whiteiverson.minecraft.playtime_plugin.Storage.YamlStoreConverter;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.LibraryLoader;
+import com.whiteiverson.minecraft.playtime_plugin.Utilities.RecordCache;
 import com.whiteiverson.minecraft.playtime_plugin.Utilities.Translator;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * UserHandler is responsible for managing user data and tracking player activity.
  */
 public class UserHandler implements Listener {
     private final Main main;
-    private final HashMap<UUID, FileConfiguration> userConfigs = new HashMap<>();
+    private final RecordCache<UUID, FileConfiguration> userConfigs;
     private final File userDataFolder;
     private final File rewardsFile;
-    private final HashMap<UUID, Long> lastActive = new HashMap<>();
+    private final ActivityTracker activityTracker = new ActivityTracker();
+    private PlayerStore playerStore;
+    private BukkitTask compactionTask;
+    private volatile LeaderboardIndex leaderboard;
+    private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+    // Loaded during pre-login and opened when the player joins
+    private final Map<UUID, PlayerSession> preloaded = new ConcurrentHashMap<>();
     private long afkThreshold;
 
     /**
@@ -38,6 +61,11 @@ public class UserHandler implements Listener {
         this.main = Main.getInstance();
         this.userDataFolder = new File(main.getDataFolder(), "data");
         this.rewardsFile = new File(main.getDataFolder(), "rewards.yml");
+        this.userConfigs = new RecordCache<>(1024L * main.getConfig().getLong("cache.max-size", 4096),
+                TimeUnit.SECONDS.toMillis(main.getConfig().getLong("cache.expire-after", 600)),
+                (uuid, userConfig) -> 512 + userConfig.getKeys(true).size() * 96);
+        // Online players are read from their sessions, but their records are still needed to open and save them
+        this.userConfigs.setPinned(sessions::containsKey);
         if (!userDataFolder.exists()) {
             if (!userDataFolder.mkdirs()) {
                 main.getLogger().warning("Failed to create user data folder: " + userDataFolder.getAbsolutePath());
@@ -47,6 +75,140 @@ public class UserHandler implements Listener {
     
     public void enable() {
     	loadConfigValues();
+    	openPlayerStore();
+
+    	if (main.getDatabaseManager() != null && main.getDatabaseManager().getUserCache() != null) {
+    	    main.getDatabaseManager().getUserCache().setPinned(uuid -> sessions.containsKey(UUID.fromString(uuid)));
+    	}
+
+    	// Flat-file storage cannot sort, so /pttop reads a leaderboard kept in memory instead
+    	if (!useDatabaseStorage() && leaderboard == null) {
+    	    leaderboard = new LeaderboardIndex();
+    	    Bukkit.getScheduler().runTaskAsynchronously(main, this::buildLeaderboard);
+    	}
+
+    	// Players already online (e.g. after a reload) get no join event
+    	for (Player player : Bukkit.getOnlinePlayers()) {
+    	    activityTracker.track(player.getUniqueId());
+    	}
+    }
+
+    /**
+     * Opens the binary or MVStore flat-file store if one is selected, converting existing YAML user files until a
+     * conversion has finished.
+     */
+    private void openPlayerStore() {
+        if (playerStore != null || useDatabaseStorage()) {
+            return;
+        }
+
+        FileConfiguration config = main.getConfig();
+        String type = config.getString("storage.type", "yaml");
+        File storeFile;
+        try {
+            if ("binary".equalsIgnoreCase(type)) {
+                storeFile = new File(userDataFolder, "players.dat");
+                playerStore = BinaryPlayerStore.open(storeFile, main.getLogger());
+                convertYamlFiles(storeFile);
+            } else if ("mvstore".equalsIgnoreCase(type)) {
+                storeFile = new File(userDataFolder, "players.mv.db");
+                if (!new LibraryLoader(main.getDataFolder(), main.getLogger()).loadMVStore()) {
+                    main.getLogger().severe("H2 MVStore could not be loaded, using YAML user files instead.");
+                    return;
+                }
+                MVStorePlayerStore store = MVStorePlayerStore.open(storeFile,
+                        config.getInt("storage.mvstore.cache-size", 16),
+                        config.getInt("storage.mvstore.commit-delay", 1000), main.getLogger());
+                playerStore = store;
+                convertYamlFiles(storeFile);
+                scheduleCompaction(store);
+            }
+        } catch (IOException e) {
+            main.getLogger().severe("Failed to open the " + type + " player store, using YAML user files instead: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Converts the YAML user files on the server thread, before any player can join and be missed by it. A marker
+     * file is written once every file is in the store and durable; until then the conversion runs again on each
+     * start, skipping the players already converted.
+     */
+    private void convertYamlFiles(File storeFile) {
+        File marker = new File(storeFile.getPath() + ".converted");
+        if (marker.exists()) {
+            return;
+        }
+
+        try {
+            int converted = YamlStoreConverter.convert(userDataFolder, playerStore, main.getLogger());
+            playerStore.force();
+            if (!marker.createNewFile()) {
+                main.getLogger().warning("Failed to create " + marker.getName() + "; YAML user files will be checked again on the next start.");
+            }
+            if (converted > 0) {
+                main.getLogger().info("Converted " + converted + " YAML user files to " + storeFile.getName() + ".");
+            }
+        } catch (IOException e) {
+            main.getLogger().severe("YAML user files were not all converted to " + storeFile.getName() + ": "
+                    + e.getMessage() + ". The conversion will continue on the next start.");
+        }
+    }
+
+    /**
+     * Compacts the MVStore file every {@code storage.mvstore.compact-interval} minutes, off the main thread.
+     */
+    private void scheduleCompaction(MVStorePlayerStore store) {
+        long intervalTicks = main.getConfig().getLong("storage.mvstore.compact-interval", 30) * 60L * 20L;
+        int maxMillis = main.getConfig().getInt("storage.mvstore.compact-time", 200);
+        if (intervalTicks <= 0) {
+            return;
+        }
+
+        compactionTask = Bukkit.getScheduler().runTaskTimerAsynchronously(main, () -> {
+            long start = System.nanoTime();
+            try {
+                store.compact(maxMillis);
+            } catch (RuntimeException e) {
+                if (main.getConfig().getBoolean("logging.debug", false)) {
+                    main.getLogger().severe("Failed to compact the player store: " + e.getMessage());
+                }
+            }
+            main.getMetrics().record("storage.compact", start);
+        }, intervalTicks, intervalTicks);
+    }
+
+    /**
+     * Closes the player store. Called once every pending write has finished.
+     */
+    public void closeStorage() {
+        if (compactionTask != null) {
+            compactionTask.cancel();
+            compactionTask = null;
+        }
+        if (playerStore == null) {
+            return;
+        }
+
+        try {
+            playerStore.close();
+        } catch (IOException e) {
+            main.getLogger().severe("Failed to close player store: " + e.getMessage());
+        }
+        playerStore = null;
+    }
+
+    public PlayerStore getPlayerStore() {
+        return playerStore;
+    }
+
+    /**
+     * Whether the player has a record in flat-file storage.
+     *
+     * @param uuid The UUID of the player.
+     */
+    public boolean hasStoredData(UUID uuid) {
+        PlayerStore store = playerStore;
+        return store != null ? store.contains(uuid) : new File(userDataFolder, uuid + ".yml").exists();
     }
 
     private boolean useDatabaseStorage() {
@@ -59,41 +221,38 @@ public class UserHandler implements Listener {
     }
 
     public void loadUserData(UUID uuid) {
+        loadUserData(uuid, null);
+    }
+
+    /**
+     * Loads a user's record, creating it if the user is new.
+     *
+     * @param uuid     The UUID of the user.
+     * @param username The user's name, or null to look it up; must be given when not on the server thread.
+     */
+    private void loadUserData(UUID uuid, String username) {
         if (useDatabaseStorage()) {
             if (main.getUserDataManager() == null) {
                 // Database is enabled but UserDataManager is null - connection failed
                 main.getLogger().severe("Database is enabled but connection failed. Falling back to file storage for " + uuid);
-                // Force disable database for this session
-                main.getConfig().set("database.enabled", false);
-                loadUserDataFromFile(uuid);
+                // Force disable database for this session; the config is only changed on the server thread
+                Bukkit.getScheduler().runTask(main, () -> main.getConfig().set("database.enabled", false));
+                loadUserDataFromFile(uuid, username);
                 return;
             }
-            loadUserDataFromDatabase(uuid);
+            loadUserDataFromDatabase(uuid, username);
         } else {
-            loadUserDataFromFile(uuid);
+            loadUserDataFromFile(uuid, username);
         }
     }
 
-    private void loadUserDataFromDatabase(UUID uuid) {
+    private void loadUserDataFromDatabase(UUID uuid, String username) {
         try {
             Map<String, Object> userData = main.getUserDataManager().loadUser(uuid.toString());
 
-            if (userData.isEmpty()) {
-                // User doesn't exist in database, create new entry
-                Player player = Bukkit.getPlayer(uuid);
-                String username = player != null ? player.getName() : Bukkit.getOfflinePlayer(uuid).getName();
-                String joinDate = setUserJoinDate(uuid);
-
-                main.getUserDataManager().saveUser(uuid.toString(), username, joinDate, 0.0, 0.0);
-
-                // Load rewards
-                FileConfiguration rewardsConfig = Translator.loadYamlWithBomHandlingStatic(rewardsFile);
-                if (rewardsConfig.contains("rewards")) {
-                    for (String reward : Objects.requireNonNull(rewardsConfig.getConfigurationSection("rewards")).getKeys(false)) {
-                        String rewardName = rewardsConfig.getString("rewards." + reward + ".name");
-                        main.getUserDataManager().updateReward(uuid.toString(), rewardName, false);
-                    }
-                }
+            if (userData.isEmpty() && main.getPersistenceExecutor().getPending(uuid) == null) {
+                // User doesn't exist in database, queue a new entry with every reward unclaimed
+                main.getPersistenceExecutor().submit(createNewUserSnapshot(uuid, username));
             }
         } catch (SQLException e) {
             if (main.getConfig().getBoolean("logging.debug", false)) {
@@ -102,30 +261,28 @@ public class UserHandler implements Listener {
         }
     }
 
-    private void loadUserDataFromFile(UUID uuid) {
-        // Your existing file-based loading code
-        File userFile = new File(userDataFolder, uuid.toString() + ".yml");
-        FileConfiguration userConfig;
+    private void loadUserDataFromFile(UUID uuid, String username) {
+        FileConfiguration userConfig = readStoredUserConfig(uuid);
+        boolean isNewUser = userConfig == null;
 
-        if (userFile.exists()) {
-            userConfig = Translator.loadYamlWithBomHandlingStatic(userFile);
-        } else {
-            try {
-                if (!userFile.createNewFile()) {
-                    main.getLogger().warning("Failed to create user file: " + userFile.getAbsolutePath());
-                }
-                userConfig = Translator.loadYamlWithBomHandlingStatic(userFile);
-            } catch (IOException e) {
-                if (main.getConfig().getBoolean("logging.debug", false)) {
-                    main.getLogger().severe("Failed to create user file: " + e.getMessage());
-                }
-                return;
-            }
+        if (isNewUser) {
+            // The file itself is written by the persistence worker
+            userConfig = new YamlConfiguration();
+        }
+
+        PlayerSnapshot pending = main.getPersistenceExecutor().getPending(uuid);
+        if (pending != null) {
+            // The last write, or a new user's first, has not reached the disk yet, e.g. when the record was
+            // evicted from the cache right after the player left
+            applySnapshot(userConfig, pending);
+            isNewUser = false;
         }
 
         if (!userConfig.contains("username")) {
-            Player player = Bukkit.getPlayer(uuid);
-            if (player != null) {
+            Player player = username == null ? Bukkit.getPlayer(uuid) : null;
+            if (username != null) {
+                userConfig.set("username", username);
+            } else if (player != null) {
                 userConfig.set("username", player.getName());
             } else {
                 OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(uuid);
@@ -146,8 +303,75 @@ public class UserHandler implements Listener {
         }
 
         loadRewardsForUser(userConfig);
-        saveUserData(uuid);
         userConfigs.put(uuid, userConfig);
+
+        if (isNewUser) {
+            saveUserData(uuid);
+        }
+    }
+
+    /**
+     * Returns a user's cached flat-file record, reading it from storage first if it is not cached.
+     *
+     * @param uuid The UUID of the user.
+     * @return The record; a new user's is created.
+     */
+    private FileConfiguration getUserConfig(UUID uuid) {
+        FileConfiguration userConfig = userConfigs.get(uuid);
+        if (userConfig == null) {
+            loadUserData(uuid);
+            userConfig = userConfigs.peek(uuid);
+        }
+        return userConfig;
+    }
+
+    /**
+     * Reads a user's stored record from the binary store or their YAML file.
+     *
+     * @param uuid The UUID of the user.
+     * @return The record, or null if the user is not stored.
+     */
+    private FileConfiguration readStoredUserConfig(UUID uuid) {
+        PlayerStore store = playerStore;
+        if (store != null) {
+            PlayerSnapshot stored = store.read(uuid);
+            if (stored == null) {
+                return null;
+            }
+
+            FileConfiguration userConfig = new YamlConfiguration();
+            applySnapshot(userConfig, stored);
+            return userConfig;
+        }
+
+        File userFile = new File(userDataFolder, uuid.toString() + ".yml");
+        return userFile.exists() ? Translator.loadYamlWithBomHandlingStatic(userFile) : null;
+    }
+
+    /**
+     * Builds the initial record of a player that is not in storage yet.
+     *
+     * @param uuid     The UUID of the player.
+     * @param username The player's name, or null to look it up.
+     * @return A snapshot with no play time and every configured reward unclaimed.
+     */
+    private PlayerSnapshot createNewUserSnapshot(UUID uuid, String username) {
+        if (username == null) {
+            Player player = Bukkit.getPlayer(uuid);
+            username = player != null ? player.getName() : Bukkit.getOfflinePlayer(uuid).getName();
+        }
+        String joinDate = setUserJoinDate(uuid);
+
+        Map<String, Boolean> rewards = new HashMap<>();
+        FileConfiguration rewardsConfig = Translator.loadYamlWithBomHandlingStatic(rewardsFile);
+        if (rewardsConfig.contains("rewards")) {
+            for (String reward : Objects.requireNonNull(rewardsConfig.getConfigurationSection("rewards")).getKeys(false)) {
+                rewards.put(rewardsConfig.getString("rewards." + reward + ".name"), false);
+            }
+        }
+
+        // No time gained, so a record another server already created is not reset
+        return new PlayerSnapshot(uuid, username, joinDate, 0.0, 0.0, rewards, rewards.keySet(), 0.0, 0.0);
     }
 
     private void loadRewardsForUser(FileConfiguration userConfig) {
@@ -176,13 +400,14 @@ public class UserHandler implements Listener {
     
     /**
      * Determines the join date based on the player's first played date or today's date if never played before.
+     * Off the server thread the player data is not read and today's date is used.
      *
      * @param uuid The UUID of the player.
      * @return The join date as a string in dd.MM.yyyy format.
      */
     private String setUserJoinDate(UUID uuid) {
-        OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(uuid);
-        if (offlinePlayer.hasPlayedBefore()) {
+        OfflinePlayer offlinePlayer = Bukkit.isPrimaryThread() ? Bukkit.getOfflinePlayer(uuid) : null;
+        if (offlinePlayer != null && offlinePlayer.hasPlayedBefore()) {
             Date joinDate = new Date(offlinePlayer.getFirstPlayed());
             return new SimpleDateFormat("dd.MM.yyyy").format(joinDate);
         } else {
@@ -198,6 +423,16 @@ public class UserHandler implements Listener {
      * @return The join date as a string.
      */
     public String getUserJoinDate(UUID uuid) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            return session.getJoinDate();
+        }
+
+        PlayerSnapshot pending = main.getPersistenceExecutor().getPending(uuid);
+        if (pending != null) {
+            return pending.getJoinDate();
+        }
+
         if (useDatabaseStorage()) {
             try {
                 Map<String, Object> userData = main.getUserDataManager().loadUser(uuid.toString());
@@ -209,16 +444,22 @@ public class UserHandler implements Listener {
                 return "Unknown";
             }
         } else {
-            FileConfiguration userConfig = userConfigs.get(uuid);
-            if (userConfig == null) {
-                loadUserData(uuid);
-                userConfig = userConfigs.get(uuid);
-            }
+            FileConfiguration userConfig = getUserConfig(uuid);
             return userConfig.getString("joined", "Unknown");
         }
     }
 
     public double getPlaytime(UUID uuid) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            return session.getPlaytime();
+        }
+
+        PlayerSnapshot pending = main.getPersistenceExecutor().getPending(uuid);
+        if (pending != null) {
+            return pending.getPlaytime();
+        }
+
         if (useDatabaseStorage()) {
             try {
                 return main.getUserDataManager().getPlaytime(uuid.toString());
@@ -234,6 +475,16 @@ public class UserHandler implements Listener {
     }
 
     public double getAfkTime(UUID uuid) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            return session.getAfkTime();
+        }
+
+        PlayerSnapshot pending = main.getPersistenceExecutor().getPending(uuid);
+        if (pending != null) {
+            return pending.getAfkTime();
+        }
+
         if (useDatabaseStorage()) {
             try {
                 return main.getUserDataManager().getAfkTime(uuid.toString());
@@ -249,6 +500,16 @@ public class UserHandler implements Listener {
     }
 
     public boolean isRewardClaimed(UUID uuid, String rewardName) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            return session.isRewardClaimed(rewardName);
+        }
+
+        PlayerSnapshot pending = main.getPersistenceExecutor().getPending(uuid);
+        if (pending != null && pending.getRewards().containsKey(rewardName)) {
+            return pending.isRewardClaimed(rewardName);
+        }
+
         if (useDatabaseStorage()) {
             try {
                 Map<String, Boolean> rewards = main.getUserDataManager().getRewards(uuid.toString());
@@ -266,6 +527,17 @@ public class UserHandler implements Listener {
     }
 
     public Object getUserData(UUID uuid, String key) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            if (key.equals("playtime")) {
+                return session.getPlaytime();
+            } else if (key.equals("afk-time")) {
+                return session.getAfkTime();
+            } else if (key.equals("username")) {
+                return session.getUsername();
+            }
+        }
+
         if (useDatabaseStorage()) {
             try {
                 Map<String, Object> userData = main.getUserDataManager().loadUser(uuid.toString());
@@ -277,32 +549,36 @@ public class UserHandler implements Listener {
                 return null;
             }
         } else {
-            FileConfiguration userConfig = userConfigs.get(uuid);
-            if (userConfig == null) {
-                loadUserData(uuid);
-                userConfig = userConfigs.get(uuid);
-            }
+            FileConfiguration userConfig = getUserConfig(uuid);
             return userConfig != null ? userConfig.get(key) : null;
         }
     }
 
     public void setUserData(UUID uuid, String key, Object value) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            // Counters of online players are write-behind and only reach storage on the next flush
+            if (key.equals("playtime")) {
+                session.setPlaytime(((Number) value).doubleValue());
+                return;
+            } else if (key.equals("afk-time")) {
+                session.setAfkTime(((Number) value).doubleValue());
+                return;
+            } else if (key.equals("username")) {
+                session.setUsername((String) value);
+                return;
+            } else if (key.startsWith("rewards.claimed.")) {
+                // Reward claims are queued straight away rather than waiting for the next flush
+                session.setRewardClaimed(key.substring("rewards.claimed.".length()), (boolean) value);
+                flushSession(session);
+                return;
+            }
+        }
+
         if (useDatabaseStorage()) {
             try {
-                if (key.equals("playtime")) {
-                    Map<String, Object> userData = main.getUserDataManager().loadUser(uuid.toString());
-                    String username = (String) userData.getOrDefault("username", Bukkit.getOfflinePlayer(uuid).getName());
-                    String joinDate = (String) userData.getOrDefault("joined", setUserJoinDate(uuid));
-                    double afkTime = (double) userData.getOrDefault("afk-time", 0.0);
-
-                    main.getUserDataManager().saveUser(uuid.toString(), username, joinDate, (double) value, afkTime);
-                } else if (key.equals("afk-time")) {
-                    Map<String, Object> userData = main.getUserDataManager().loadUser(uuid.toString());
-                    String username = (String) userData.getOrDefault("username", Bukkit.getOfflinePlayer(uuid).getName());
-                    String joinDate = (String) userData.getOrDefault("joined", setUserJoinDate(uuid));
-                    double playtime = (double) userData.getOrDefault("playtime", 0.0);
-
-                    main.getUserDataManager().saveUser(uuid.toString(), username, joinDate, playtime, (double) value);
+                if (key.equals("playtime") || key.equals("afk-time")) {
+                    setStoredTime(uuid, key, (double) value);
                 } else if (key.startsWith("rewards.claimed.")) {
                     String rewardName = key.substring("rewards.claimed.".length());
                     main.getUserDataManager().updateReward(uuid.toString(), rewardName, (boolean) value);
@@ -314,18 +590,46 @@ public class UserHandler implements Listener {
                 }
             }
         } else {
-            FileConfiguration userConfig = userConfigs.get(uuid);
-            if (userConfig == null) {
-                loadUserData(uuid);
-                userConfig = userConfigs.get(uuid);
-            }
+            FileConfiguration userConfig = getUserConfig(uuid);
             userConfig.set(key, value);
             saveUserData(uuid);
         }
     }
 
+    /**
+     * Sets the play or AFK time of an offline user in the database. The row's version is checked on write, so a
+     * change made by another server between the read and the write is not overwritten; the read is repeated.
+     */
+    private void setStoredTime(UUID uuid, String key, double value) throws SQLException {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Map<String, Object> userData = main.getUserDataManager().loadUser(uuid.toString());
+            String username = userData.containsKey("username") ? (String) userData.get("username") : Bukkit.getOfflinePlayer(uuid).getName();
+            double playtime = key.equals("playtime") ? value : (double) userData.getOrDefault("playtime", 0.0);
+            double afkTime = key.equals("afk-time") ? value : (double) userData.getOrDefault("afk-time", 0.0);
+
+            Long version = (Long) userData.get("version");
+            if (version == null) {
+                String joinDate = userData.containsKey("joined") ? (String) userData.get("joined") : setUserJoinDate(uuid);
+                main.getUserDataManager().saveUser(uuid.toString(), username, joinDate, playtime, afkTime);
+                return;
+            }
+            if (main.getUserDataManager().saveUserIfVersion(uuid.toString(), username, playtime, afkTime, version)) {
+                return;
+            }
+        }
+        throw new SQLException("The " + key + " of " + uuid + " kept changing on another server and was not set");
+    }
+
+    /**
+     * Queues the user's current data for writing. The write itself happens on the persistence thread.
+     *
+     * @param uuid The UUID of the user.
+     */
     public void saveUserData(UUID uuid) {
-        if (useDatabaseStorage()) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            submitSnapshot(session.snapshot());
+        } else if (useDatabaseStorage()) {
             saveUserDataToDatabase(uuid);
         } else {
             saveUserDataToFile(uuid);
@@ -334,15 +638,20 @@ public class UserHandler implements Listener {
 
     private void saveUserDataToDatabase(UUID uuid) {
         try {
-            Map<String, Object> userData = main.getUserDataManager().loadUser(uuid.toString());
+            // One read for every field, then the write goes through the batched writer
+            PlayerSnapshot pending = main.getPersistenceExecutor().getPending(uuid);
+            Map<String, Object> userData = pending == null ? main.getUserDataManager().loadUser(uuid.toString()) : new HashMap<>();
 
             Player player = Bukkit.getPlayer(uuid);
             String username = player != null ? player.getName() : Bukkit.getOfflinePlayer(uuid).getName();
-            String joinDate = (String) userData.getOrDefault("joined", setUserJoinDate(uuid));
-            double playtime = getPlaytime(uuid);
-            double afkTime = getAfkTime(uuid);
+            String joinDate = pending != null ? pending.getJoinDate()
+                    : userData.containsKey("joined") ? (String) userData.get("joined") : setUserJoinDate(uuid);
+            double playtime = pending != null ? pending.getPlaytime() : (double) userData.getOrDefault("playtime", 0.0);
+            double afkTime = pending != null ? pending.getAfkTime() : (double) userData.getOrDefault("afk-time", 0.0);
 
-            main.getUserDataManager().saveUser(uuid.toString(), username, joinDate, playtime, afkTime);
+            // Nothing was gained here, so in delta mode only the name is written
+            main.getPersistenceExecutor().submit(new PlayerSnapshot(uuid, username, joinDate, playtime, afkTime,
+                    pending != null ? pending.getRewards() : Collections.emptyMap(), Collections.emptySet(), 0.0, 0.0));
         } catch (SQLException e) {
             if (main.getConfig().getBoolean("logging.debug", false)) {
                 main.getLogger().severe("Failed to save user data to database: " + e.getMessage());
@@ -355,21 +664,361 @@ public class UserHandler implements Listener {
             return;
         }
 
-        // Your existing save code
-        File userFile = new File(userDataFolder, uuid.toString() + ".yml");
-        FileConfiguration userConfig = userConfigs.get(uuid);
-
+        FileConfiguration userConfig = userConfigs.peek(uuid);
         if (userConfig == null) {
             return;
         }
 
-        try {
-            userConfig.save(userFile);
-        } catch (IOException e) {
-            if (main.getConfig().getBoolean("logging.debug", false)) {
-                main.getLogger().severe("Failed to save user data to file: " + e.getMessage());
+        Map<String, Boolean> rewards = new HashMap<>();
+        ConfigurationSection claimed = userConfig.getConfigurationSection("rewards.claimed");
+        if (claimed != null) {
+            for (String rewardName : claimed.getKeys(false)) {
+                rewards.put(rewardName, claimed.getBoolean(rewardName));
             }
         }
+
+        PlayerSnapshot snapshot = new PlayerSnapshot(uuid,
+                userConfig.getString("username"),
+                userConfig.getString("joined"),
+                userConfig.getDouble("playtime", 0.0),
+                userConfig.getDouble("afk-time", 0.0),
+                rewards, rewards.keySet());
+        LeaderboardIndex index = leaderboard;
+        if (index != null) {
+            index.update(uuid, snapshot.getUsername(), snapshot.getPlaytime());
+        }
+        main.getPersistenceExecutor().submit(snapshot);
+    }
+
+    /**
+     * Reads every stored player into the leaderboard. Runs off the server thread; players updated while it runs
+     * keep their newer place.
+     */
+    private void buildLeaderboard() {
+        LeaderboardIndex index = leaderboard;
+        long start = System.nanoTime();
+
+        Collection<UUID> uuids;
+        PlayerStore store = playerStore;
+        if (store != null) {
+            uuids = store.getUuids();
+        } else {
+            uuids = new ArrayList<>();
+            String[] names = userDataFolder.list((dir, name) -> name.endsWith(".yml"));
+            for (String name : names != null ? names : new String[0]) {
+                try {
+                    uuids.add(UUID.fromString(name.substring(0, name.length() - ".yml".length())));
+                } catch (IllegalArgumentException e) {
+                    // Not a user file
+                }
+            }
+        }
+
+        for (UUID uuid : uuids) {
+            indexStoredUser(index, uuid, false);
+        }
+
+        main.getMetrics().record("leaderboard.build", start);
+        if (main.getConfig().getBoolean("logging.debug", false)) {
+            main.getLogger().info("Leaderboard built with " + index.size() + " players in "
+                    + (System.nanoTime() - start) / 1_000_000L + " ms.");
+        }
+    }
+
+    private void indexStoredUser(LeaderboardIndex index, UUID uuid, boolean replace) {
+        String username;
+        double playtime;
+        PlayerSnapshot pending = main.getPersistenceExecutor().getPending(uuid);
+        if (pending != null) {
+            username = pending.getUsername();
+            playtime = pending.getPlaytime();
+        } else {
+            FileConfiguration userConfig = readStoredUserConfig(uuid);
+            if (userConfig == null) {
+                index.remove(uuid);
+                return;
+            }
+            username = userConfig.getString("username");
+            playtime = userConfig.getDouble("playtime", 0.0);
+        }
+
+        if (replace) {
+            index.update(uuid, username, playtime);
+        } else {
+            index.updateIfAbsent(uuid, username, playtime);
+        }
+    }
+
+    /**
+     * @return The in-memory leaderboard, or null when a database does the sorting.
+     */
+    public LeaderboardIndex getLeaderboard() {
+        return leaderboard;
+    }
+
+    /**
+     * Moves an online player to their current place on the leaderboard.
+     *
+     * @param session The player's session.
+     */
+    public void updateLeaderboard(PlayerSession session) {
+        LeaderboardIndex index = leaderboard;
+        if (index != null) {
+            index.update(session.getUuid(), session.getUsername(), session.getPlaytime());
+        }
+    }
+
+    private void submitSnapshot(PlayerSnapshot snapshot) {
+        updateCachedConfig(snapshot);
+        main.getPersistenceExecutor().submit(snapshot);
+    }
+
+    private void updateCachedConfig(PlayerSnapshot snapshot) {
+        LeaderboardIndex index = leaderboard;
+        if (index != null) {
+            index.update(snapshot.getUuid(), snapshot.getUsername(), snapshot.getPlaytime());
+        }
+
+        if (!useDatabaseStorage()) {
+            // Keep the cached copy current for reads; the worker writes its own copy to disk
+            FileConfiguration userConfig = userConfigs.peek(snapshot.getUuid());
+            if (userConfig != null) {
+                applySnapshot(userConfig, snapshot);
+            }
+        }
+    }
+
+    private void applySnapshot(FileConfiguration userConfig, PlayerSnapshot snapshot) {
+        userConfig.set("username", snapshot.getUsername());
+        userConfig.set("joined", snapshot.getJoinDate());
+        userConfig.set("playtime", snapshot.getPlaytime());
+        userConfig.set("afk-time", snapshot.getAfkTime());
+        snapshot.getRewards().forEach((rewardName, claimed) -> userConfig.set("rewards.claimed." + rewardName, claimed));
+    }
+
+    /**
+     * Writes a batch of snapshots to the active storage; in a single transaction when using a database.
+     * Runs on the persistence thread, so it must not use the Bukkit API or the cached user configs.
+     *
+     * @param snapshots The snapshots to write.
+     */
+    public void writeSnapshots(List<PlayerSnapshot> snapshots) throws SQLException, IOException {
+        if (useDatabaseStorage()) {
+            main.getUserDataManager().saveUsers(snapshots);
+        } else {
+            for (PlayerSnapshot snapshot : snapshots) {
+                writeSnapshot(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot to the active storage. Runs on the persistence thread, so it must not use the Bukkit API
+     * or the cached user configs.
+     *
+     * @param snapshot The snapshot to write.
+     */
+    public void writeSnapshot(PlayerSnapshot snapshot) throws SQLException, IOException {
+        String uuid = snapshot.getUuid().toString();
+
+        if (useDatabaseStorage()) {
+            main.getUserDataManager().saveUsers(Collections.singletonList(snapshot));
+        } else if (playerStore != null) {
+            long start = System.nanoTime();
+            playerStore.write(snapshot);
+            main.getMetrics().record(playerStore instanceof MVStorePlayerStore ? "storage.writeMVStore" : "storage.writeBinary", start);
+        } else {
+            long start = System.nanoTime();
+            YamlConfiguration userConfig = new YamlConfiguration();
+            applySnapshot(userConfig, snapshot);
+
+            // Write to a temporary file first so a crash mid-write never leaves a truncated user file
+            File userFile = new File(userDataFolder, uuid + ".yml");
+            File tempFile = new File(userDataFolder, uuid + ".yml.tmp");
+            userConfig.save(tempFile);
+            Files.move(tempFile.toPath(), userFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            main.getMetrics().record("storage.writeFile", start);
+        }
+    }
+
+    /**
+     * Loads the player's stored record once and keeps it in memory for the rest of their session.
+     *
+     * @param player The online player.
+     * @return The player's session, or null if their data could not be loaded.
+     */
+    public PlayerSession openSession(Player player) {
+        UUID uuid = player.getUniqueId();
+        PlayerSession existing = sessions.get(uuid);
+        if (existing != null) {
+            return existing;
+        }
+
+        PlayerSession session = preloaded.remove(uuid);
+        PlayerSnapshot pending = main.getPersistenceExecutor().getPending(uuid);
+        if (pending != null) {
+            // A queued write is newest, e.g. one made when the player's previous connection just closed
+            session = PlayerSession.fromSnapshot(pending);
+        } else if (session == null) {
+            // Not preloaded, e.g. players online when the plugin was enabled
+            session = loadSession(uuid, player.getName());
+            if (session == null) {
+                return null;
+            }
+        }
+
+        // Username has changed since the last session, so it is written with the next flush
+        if (!player.getName().equals(session.getUsername())) {
+            session.setUsername(player.getName());
+        }
+
+        // With session accounting, time starts accruing from the moment the session opens
+        if (main.getPlayTimeHandler() != null && main.getPlayTimeHandler().isSessionAccounting()) {
+            session.startTiming(false, System.nanoTime());
+        }
+
+        sessions.put(uuid, session);
+        return session;
+    }
+
+    /**
+     * Loads a player's record, creating it for a new player, into a session that is not opened yet. Off the server
+     * thread, e.g. during {@link AsyncPlayerPreLoginEvent}, it makes no Bukkit calls: the name is given and a new
+     * player's join date is today.
+     *
+     * @param uuid     The UUID of the player.
+     * @param username The player's current name.
+     * @return The session, or null if the player's data could not be loaded.
+     */
+    private PlayerSession loadSession(UUID uuid, String username) {
+        loadUserData(uuid, username);
+
+        PlayerSession session;
+        PlayerSnapshot pending = main.getPersistenceExecutor().getPending(uuid);
+        if (pending != null) {
+            // A write is still queued (new user, or a quick rejoin), so it is newer than storage
+            session = PlayerSession.fromSnapshot(pending);
+        } else if (useDatabaseStorage()) {
+            try {
+                Map<String, Object> userData = main.getUserDataManager().loadUser(uuid.toString());
+                if (userData.isEmpty()) {
+                    return null;
+                }
+
+                session = new PlayerSession(uuid,
+                        (String) userData.getOrDefault("username", username),
+                        userData.containsKey("joined") ? (String) userData.get("joined") : setUserJoinDate(uuid),
+                        (double) userData.getOrDefault("playtime", 0.0),
+                        (double) userData.getOrDefault("afk-time", 0.0));
+
+                for (Map.Entry<String, Boolean> reward : main.getUserDataManager().getRewards(uuid.toString()).entrySet()) {
+                    session.loadReward(reward.getKey(), reward.getValue());
+                }
+            } catch (SQLException e) {
+                if (main.getConfig().getBoolean("logging.debug", false)) {
+                    main.getLogger().severe("Failed to open session from database: " + e.getMessage());
+                }
+                return null;
+            }
+        } else {
+            FileConfiguration userConfig = userConfigs.peek(uuid);
+            if (userConfig == null) {
+                return null;
+            }
+
+            session = new PlayerSession(uuid,
+                    userConfig.getString("username", username),
+                    userConfig.contains("joined") ? userConfig.getString("joined") : setUserJoinDate(uuid),
+                    userConfig.getDouble("playtime", 0.0),
+                    userConfig.getDouble("afk-time", 0.0));
+
+            ConfigurationSection claimed = userConfig.getConfigurationSection("rewards.claimed");
+            if (claimed != null) {
+                for (String rewardName : claimed.getKeys(false)) {
+                    session.loadReward(rewardName, claimed.getBoolean(rewardName));
+                }
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Retrieves the in-memory session of an online player.
+     *
+     * @param uuid The UUID of the player.
+     * @return The session, or null if the player has no open session.
+     */
+    public PlayerSession getSession(UUID uuid) {
+        return sessions.get(uuid);
+    }
+
+    /**
+     * @return The UUIDs of the players with an open session; safe to call off the server thread.
+     */
+    public List<UUID> getSessionUuids() {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    /**
+     * Writes every session that has changed since the last flush to storage.
+     */
+    public void flushSessions() {
+        List<PlayerSnapshot> snapshots = new ArrayList<>();
+        for (PlayerSession session : sessions.values()) {
+            if (session.isDirty()) {
+                PlayerSnapshot snapshot = session.snapshot();
+                updateCachedConfig(snapshot);
+                snapshots.add(snapshot);
+            }
+        }
+
+        // Queued together so they are written in batches
+        main.getPersistenceExecutor().submitAll(snapshots);
+    }
+
+    /**
+     * Stops the clock of every online player and queues their final snapshots, e.g. when the server stops.
+     *
+     * @return The number of sessions that had anything to write.
+     */
+    public int closeSessions() {
+        long now = System.nanoTime();
+        List<PlayerSnapshot> snapshots = new ArrayList<>();
+        for (PlayerSession session : sessions.values()) {
+            session.stopTiming(now);
+            if (session.isDirty()) {
+                PlayerSnapshot snapshot = session.snapshot();
+                updateCachedConfig(snapshot);
+                snapshots.add(snapshot);
+            }
+        }
+
+        main.getPersistenceExecutor().submitAll(snapshots);
+        return snapshots.size();
+    }
+
+    private void flushSession(PlayerSession session) {
+        submitSnapshot(session.snapshot());
+    }
+
+    /**
+     * Flushes and discards the session of a player that is leaving.
+     *
+     * @param uuid The UUID of the player.
+     */
+    public void closeSession(UUID uuid) {
+        PlayerSession session = sessions.get(uuid);
+        if (session == null) {
+            return;
+        }
+
+        // Stop the clock at the moment the player leaves
+        session.stopTiming(System.nanoTime());
+
+        if (session.isDirty()) {
+            flushSession(session);
+        }
+        sessions.remove(uuid);
     }
 
     /**
@@ -381,6 +1030,15 @@ public class UserHandler implements Listener {
      * @return The value associated with the path, or the default value if not found.
      */
     public double getUserConfigValue(UUID uuid, String path, double def) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            if (path.equals("playtime")) {
+                return session.getPlaytime();
+            } else if (path.equals("afk-time")) {
+                return session.getAfkTime();
+            }
+        }
+
         if (useDatabaseStorage()) {
             try {
                 Map<String, Object> userData = main.getUserDataManager().loadUser(uuid.toString());
@@ -397,11 +1055,7 @@ public class UserHandler implements Listener {
                 return def;
             }
         } else {
-            FileConfiguration userConfig = userConfigs.get(uuid);
-            if (userConfig == null) {
-                loadUserData(uuid);
-                userConfig = userConfigs.get(uuid);
-            }
+            FileConfiguration userConfig = getUserConfig(uuid);
             return userConfig != null ? userConfig.getDouble(path, def) : def;
         }
     }
@@ -413,7 +1067,62 @@ public class UserHandler implements Listener {
      * @param activeTime The time to be tracked as the last active time.
      */
     public void setLastActive(UUID uuid, long activeTime) {
-        lastActive.put(uuid, activeTime);
+        activityTracker.setLastActive(uuid, activeTime);
+    }
+
+    /**
+     * @return The cache of flat-file records read for offline lookups and kept for online players.
+     */
+    public RecordCache<UUID, FileConfiguration> getUserConfigCache() {
+        return userConfigs;
+    }
+
+    /**
+     * Drops cached flat-file data of offline users, e.g. after it was rewritten by an import.
+     *
+     * @param uuids The users to forget.
+     */
+    public void forgetCachedUsers(Collection<UUID> uuids) {
+        List<UUID> offline = new ArrayList<>();
+        for (UUID uuid : uuids) {
+            if (!sessions.containsKey(uuid)) {
+                userConfigs.remove(uuid);
+                offline.add(uuid);
+            }
+        }
+
+        // Their places on the leaderboard are read again from the rewritten records
+        LeaderboardIndex index = leaderboard;
+        if (index != null && !offline.isEmpty()) {
+            Bukkit.getScheduler().runTaskAsynchronously(main, () -> offline.forEach(uuid -> indexStoredUser(index, uuid, true)));
+        }
+    }
+
+    /**
+     * Retrieves the last time the player was active.
+     *
+     * @param uuid The UUID of the player.
+     * @return The time in milliseconds, or 0 if no activity was recorded.
+     */
+    public long getLastActive(UUID uuid) {
+        return activityTracker.getLastActive(uuid);
+    }
+
+    public ActivityTracker getActivityTracker() {
+        return activityTracker;
+    }
+
+    public long getAfkThreshold() {
+        return afkThreshold;
+    }
+
+    /**
+     * Makes every open session re-check its rewards, e.g. after rewards.yml was reloaded.
+     */
+    public void resetRewardChecks() {
+        for (PlayerSession session : sessions.values()) {
+            session.setNextRewardAt(0);
+        }
     }
 
     /**
@@ -423,46 +1132,71 @@ public class UserHandler implements Listener {
      * @return True if the player is AFK, false otherwise.
      */    
     public boolean isAfk(UUID uuid) {
-        long currentTime = System.currentTimeMillis();
-        long lastActiveTime = lastActive.getOrDefault(uuid, 0L);
-        
-        return (currentTime - lastActiveTime) > afkThreshold;
+        return activityTracker.isAfk(uuid, afkThreshold);
     }
 
     /**
      * Handles player join events, moves, interacts or chats
      *
      */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        // Called off the server thread, so a join storm does not load or create records on the main thread
+        UUID uuid = event.getUniqueId();
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            preloaded.remove(uuid);
+            return;
+        }
+
+        long start = System.nanoTime();
+        PlayerSession session = loadSession(uuid, event.getName());
+        main.getMetrics().record("session.preload", start);
+        if (session != null) {
+            preloaded.put(uuid, session);
+        } else {
+            preloaded.remove(uuid);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        // Refused after the preload, e.g. by the whitelist or a ban
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            preloaded.remove(event.getPlayer().getUniqueId());
+        }
+    }
+
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
         UUID uuid = event.getPlayer().getUniqueId();
-        loadUserData(uuid);  // Ensure data is loaded on join
-        setLastActive(uuid, System.currentTimeMillis());
+        activityTracker.track(uuid);
+        openSession(event.getPlayer());  // Load data once and keep it in memory while online
     }
     
-    @EventHandler
+    @EventHandler(ignoreCancelled = true)
     public void onPlayerMove(PlayerMoveEvent event) {
-        UUID uuid = event.getPlayer().getUniqueId();
-        setLastActive(uuid, System.currentTimeMillis());
+        // Fires many times per second per player, so only real movement is recorded
+        if (ActivityTracker.isMeaningfulMove(event.getFrom(), event.getTo())) {
+            activityTracker.markActive(event.getPlayer().getUniqueId());
+        }
     }
 
     @EventHandler
     public void onPlayerInteract(PlayerInteractEvent event) {
-        UUID uuid = event.getPlayer().getUniqueId();
-        setLastActive(uuid, System.currentTimeMillis());
+        activityTracker.markActive(event.getPlayer().getUniqueId());
     }
 
     @EventHandler
     public void onPlayerChat(AsyncPlayerChatEvent event) {
-        UUID uuid = event.getPlayer().getUniqueId();
-        setLastActive(uuid, System.currentTimeMillis());
+        // Called off the server thread
+        activityTracker.markActive(event.getPlayer().getUniqueId());
     }
 
     @EventHandler
     public void onPlayerLeave(PlayerQuitEvent event) {
         UUID uuid = event.getPlayer().getUniqueId();
-        saveUserData(uuid);
-        lastActive.remove(uuid);
+        closeSession(uuid);
+        activityTracker.untrack(uuid);
 
         // FIXED: Clear user configs when database is enabled (don't keep in memory)
         if (useDatabaseStorage()) {
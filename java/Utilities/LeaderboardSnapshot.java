@@ -0,0 +1,149 @@
+package com.whiteiverson.minecraft.playtime_plugin.Utilities;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.whiteiverson.minecraft.playtime_plugin.LeaderboardIndex;
+import com.whiteiverson.minecraft.playtime_plugin.Main;
+import com.whiteiverson.minecraft.playtime_plugin.PlayerSession;
+import com.whiteiverson.minecraft.playtime_plugin.Database.UserDataManager;
+
+/**
+ * LeaderboardSnapshot holds the top players and the ranks of online players for the rank and top placeholders.
+ * <p>
+ * Hologram and scoreboard plugins resolve placeholders for every viewer several times a second, so they are
+ * answered from arrays and a map copied out on a background timer every {@code placeholders.refresh-interval}
+ * seconds, never from storage. Each refresh builds a new snapshot and swaps it in whole, so a reader never sees
+ * a half-built one. In flat-file mode the copy comes from the in-memory {@link LeaderboardIndex}; with a
+ * database only the top rows are read, and each online player's rank is counted in the leaderboard index.
+ */
+public class LeaderboardSnapshot implements Runnable {
+
+    private static class Snapshot {
+        final String[] names;
+        final double[] playtimes;
+        final Map<UUID, Integer> ranks;
+
+        Snapshot(String[] names, double[] playtimes, Map<UUID, Integer> ranks) {
+            this.names = names;
+            this.playtimes = playtimes;
+            this.ranks = ranks;
+        }
+    }
+
+    private final Main main;
+    private final int size;
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new double[0], new HashMap<>());
+
+    /**
+     * @param size How many of the top players are kept, the highest n of {@code %playtime_top_<n>_name%}.
+     */
+    public LeaderboardSnapshot(Main main, int size) {
+        this.main = main;
+        this.size = Math.max(0, size);
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        try {
+            LeaderboardIndex index = main.getUserHandler().getLeaderboard();
+            snapshot = index != null ? fromIndex(index) : fromDatabase();
+        } catch (SQLException e) {
+            if (main.getConfig().getBoolean("logging.debug", false)) {
+                main.getLogger().severe("Failed to refresh the leaderboard placeholders: " + e.getMessage());
+            }
+        } finally {
+            main.getMetrics().record("placeholders.refresh", start);
+        }
+    }
+
+    private Snapshot fromIndex(LeaderboardIndex index) {
+        List<LeaderboardIndex.Entry> top = index.getPage(0, size);
+        String[] names = new String[top.size()];
+        double[] playtimes = new double[top.size()];
+        for (int i = 0; i < top.size(); i++) {
+            names[i] = top.get(i).getUsername();
+            playtimes[i] = top.get(i).getPlaytime();
+        }
+
+        Map<UUID, Integer> ranks = new HashMap<>();
+        for (UUID uuid : main.getUserHandler().getSessionUuids()) {
+            int rank = index.getRank(uuid);
+            if (rank > 0) {
+                ranks.put(uuid, rank);
+            }
+        }
+        return new Snapshot(names, playtimes, ranks);
+    }
+
+    private Snapshot fromDatabase() throws SQLException {
+        UserDataManager userDataManager = main.getUserDataManager();
+        if (userDataManager == null) {
+            return snapshot;
+        }
+
+        String[] names = new String[size];
+        double[] playtimes = new double[size];
+        int[] count = new int[1];
+        if (size > 0) {
+            userDataManager.forEachLeaderboardRow(size, (rank, uuid, username, playtime) -> {
+                names[rank - 1] = username;
+                playtimes[rank - 1] = playtime;
+                count[0] = rank;
+                return rank < size;
+            });
+        }
+
+        // Ranked by their current play time, which may not be stored yet; players without any are not ranked
+        Map<UUID, Integer> ranks = new HashMap<>();
+        for (UUID uuid : main.getUserHandler().getSessionUuids()) {
+            PlayerSession session = main.getUserHandler().getSession(uuid);
+            if (session == null) {
+                continue;
+            }
+            int rank = userDataManager.getLeaderboardRank(uuid, session.getPlaytime());
+            if (rank > 0) {
+                ranks.put(uuid, rank);
+            }
+        }
+
+        if (count[0] < size) {
+            String[] shortNames = new String[count[0]];
+            double[] shortPlaytimes = new double[count[0]];
+            System.arraycopy(names, 0, shortNames, 0, count[0]);
+            System.arraycopy(playtimes, 0, shortPlaytimes, 0, count[0]);
+            return new Snapshot(shortNames, shortPlaytimes, ranks);
+        }
+        return new Snapshot(names, playtimes, ranks);
+    }
+
+    /**
+     * @return The player's rank as of the last refresh, or 0 if they were not online or have no play time.
+     */
+    public int getRank(UUID uuid) {
+        Integer rank = snapshot.ranks.get(uuid);
+        return rank != null ? rank : 0;
+    }
+
+    /**
+     * @param rank The rank, from 1.
+     * @return The name of the player at that rank, or null if there is none.
+     */
+    public String getName(int rank) {
+        String[] names = snapshot.names;
+        return rank >= 1 && rank <= names.length ? names[rank - 1] : null;
+    }
+
+    /**
+     * @param rank The rank, from 1.
+     * @return The play time in seconds of the player at that rank, or -1 if there is none.
+     */
+    public double getPlaytime(int rank) {
+        double[] playtimes = snapshot.playtimes;
+        return rank >= 1 && rank <= playtimes.length ? playtimes[rank - 1] : -1;
+    }
+}
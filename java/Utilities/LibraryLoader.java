@@ -37,14 +37,16 @@ public class LibraryLoader {
         boolean mysqlLoaded = loadLibrary(
                 "mysql-connector-j",
                 "8.0.33",
-                "https://repo1.maven.org/maven2/com/mysql/mysql-connector-j/8.0.33/mysql-connector-j-8.0.33.jar"
+                "https://repo1.maven.org/maven2/com/mysql/mysql-connector-j/8.0.33/mysql-connector-j-8.0.33.jar",
+                "com.mysql.cj.jdbc.Driver"
         );
 
         // SQLite JDBC
         boolean sqliteLoaded = loadLibrary(
                 "sqlite-jdbc",
                 "3.42.0.0",
-                "https://repo1.maven.org/maven2/org/xerial/sqlite-jdbc/3.42.0.0/sqlite-jdbc-3.42.0.0.jar"
+                "https://repo1.maven.org/maven2/org/xerial/sqlite-jdbc/3.42.0.0/sqlite-jdbc-3.42.0.0.jar",
+                "org.sqlite.JDBC"
         );
 
         if (mysqlLoaded && sqliteLoaded) {
@@ -54,7 +56,25 @@ public class LibraryLoader {
         }
     }
 
-    private boolean loadLibrary(String name, String version, String downloadUrl) {
+    /**
+     * Loads H2's MVStore for the embedded player store. Only fetched when {@code storage.type} selects it.
+     */
+    public boolean loadMVStore() {
+        return loadLibrary(
+                "h2-mvstore",
+                "2.2.224",
+                "https://repo1.maven.org/maven2/com/h2database/h2-mvstore/2.2.224/h2-mvstore-2.2.224.jar",
+                "org.h2.mvstore.MVStore"
+        );
+    }
+
+    private boolean loadLibrary(String name, String version, String downloadUrl, String driverClass) {
+        // Nothing to do if the server or another plugin already provides the driver
+        if (isClassPresent(driverClass)) {
+            logger.info(name + " is already on the classpath, skipping download.");
+            return true;
+        }
+
         // Check Paper's libraries folder first
         File libFile = checkPaperLibraries(name, version);
 
@@ -94,6 +114,15 @@ public class LibraryLoader {
         }
     }
 
+    private boolean isClassPresent(String className) {
+        try {
+            Class.forName(className, false, getClass().getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
     /**
      * Check if a library exists in Paper's libraries folder
      * Paper stores libraries in a folder structure like: libraries/com/zaxxer/HikariCP/5.0.1/HikariCP-5.0.1.jar
@@ -0,0 +1,37 @@
+package com.whiteiverson.minecraft.playtime_plugin.Utilities;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Metrics holds the latency histograms of the plugin by name, e.g. {@code tick.rewards} or {@code storage.saveUser}.
+ * <p>
+ * Histograms are never removed, only reset, so code on a hot path can look one up once and keep it.
+ */
+public class Metrics {
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()}.
+     *
+     * @return The current {@link System#nanoTime()}, so consecutive phases can be timed back to back.
+     */
+    public long record(String name, long startNanos) {
+        return histogram(name).recordSince(startNanos);
+    }
+
+    /**
+     * @return Every histogram recorded so far, sorted by name.
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+    public void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+    }
+}
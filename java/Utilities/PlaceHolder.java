@@ -42,6 +42,11 @@ public class PlaceHolder extends PlaceholderExpansion {
     
     @Override
     public String onRequest(OfflinePlayer offlinePlayer, @NotNull String identifier) {
+        // Leaderboard placeholders come from the snapshot, so they never touch storage
+        if (identifier.startsWith("top_") || identifier.equals("rank")) {
+            return onLeaderboardRequest(offlinePlayer, identifier);
+        }
+
         if (offlinePlayer == null) {
             return "";  // Safely return an empty string if called without a player
         }
@@ -50,18 +55,10 @@ public class PlaceHolder extends PlaceholderExpansion {
         long playtimeSeconds = (long) main.getUserHandler().getPlaytime(playerUUID);
         String joinDate = main.getUserHandler().getUserJoinDate(playerUUID);
 
-        Map<String, String> timeComponents = Main.calculatePlaytime(playtimeSeconds, main, offlinePlayer, main.getTranslator());
-
         switch (identifier) {
             case "total":
                 // Show time with intervals in total play time
-                return String.format("%s %s %s %s %s",
-                    timeComponents.get("months") + " " + timeComponents.get("monthsString"),
-                    timeComponents.get("days") + " " + timeComponents.get("daysString"),
-                    timeComponents.get("hours") + " " + timeComponents.get("hoursString"),
-                    timeComponents.get("minutes") + " " + timeComponents.get("minutesString"),
-                    timeComponents.get("seconds") + " " + timeComponents.get("secondsString")
-                ).trim();
+                return formatTotal(playtimeSeconds, offlinePlayer);
 
             case "in_months":
             	// Calculate and display only numeric months
@@ -94,4 +91,50 @@ public class PlaceHolder extends PlaceholderExpansion {
                 return null;
         }
     }
+
+    // %playtime_rank%, %playtime_top_<n>_name% and %playtime_top_<n>_time%
+    private String onLeaderboardRequest(OfflinePlayer offlinePlayer, String identifier) {
+        LeaderboardSnapshot leaderboard = main.getLeaderboardSnapshot();
+        String empty = main.getConfig().getString("placeholders.empty", "-");
+        if (leaderboard == null) {
+            return empty;
+        }
+
+        if (identifier.equals("rank")) {
+            int rank = offlinePlayer != null ? leaderboard.getRank(offlinePlayer.getUniqueId()) : 0;
+            return rank > 0 ? String.valueOf(rank) : empty;
+        }
+
+        int separator = identifier.lastIndexOf('_');
+        int rank;
+        try {
+            rank = Integer.parseInt(identifier.substring("top_".length(), separator));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return null;
+        }
+
+        switch (identifier.substring(separator + 1)) {
+            case "name":
+                String name = leaderboard.getName(rank);
+                return name != null ? name : empty;
+
+            case "time":
+                double playtime = leaderboard.getPlaytime(rank);
+                return playtime >= 0 ? formatTotal((long) playtime, offlinePlayer) : empty;
+
+            default:
+                return null;
+        }
+    }
+
+    private String formatTotal(long playtimeSeconds, OfflinePlayer offlinePlayer) {
+        Map<String, String> timeComponents = Main.calculatePlaytime(playtimeSeconds, main, offlinePlayer, main.getTranslator());
+        return String.format("%s %s %s %s %s",
+            timeComponents.get("months") + " " + timeComponents.get("monthsString"),
+            timeComponents.get("days") + " " + timeComponents.get("daysString"),
+            timeComponents.get("hours") + " " + timeComponents.get("hoursString"),
+            timeComponents.get("minutes") + " " + timeComponents.get("minutesString"),
+            timeComponents.get("seconds") + " " + timeComponents.get("secondsString")
+        ).trim();
+    }
 }
\ No newline at end of file
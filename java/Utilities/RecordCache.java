@@ -0,0 +1,233 @@
+package com.whiteiverson.minecraft.playtime_plugin.Utilities;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * RecordCache is a bounded read-through cache of player records, in the style of Caffeine.
+ * <p>
+ * Every entry is given a weight, roughly the bytes it holds, by the cache's weigher. When the total passes the
+ * limit, expired entries are dropped first and then the least recently read ones. An entry that was not written
+ * for longer than the expiry is also dropped when it is next read, or by {@link #purgeExpired()}, which the plugin
+ * runs on a timer so expired entries do not wait for the cache to fill up. Entries the pin test accepts, such
+ * as online players, are neither evicted nor expired. Hits, misses, evictions and expiries are counted for
+ * {@code /ptstats}.
+ * <p>
+ * All methods are synchronized, as reads come from the server thread, placeholder requests and storage threads.
+ *
+ * @param <K> The key type.
+ * @param <V> The record type.
+ */
+public class RecordCache<K, V> {
+
+    private static class Entry<V> {
+        final V value;
+        final int weight;
+        final long writtenAt;
+
+        Entry(V value, int weight, long writtenAt) {
+            this.value = value;
+            this.weight = weight;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    // Access order, so iteration starts at the least recently read entry
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ToIntBiFunction<K, V> weigher;
+    private final long maxWeight;
+    private final long expireAfterMillis;
+    private Predicate<K> pinned = key -> false;
+
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * @param maxWeight         The most the entries may weigh together before the least recently read are evicted.
+     * @param expireAfterMillis How long an entry is kept after it was written, or 0 to keep it until evicted.
+     * @param weigher           Gives the weight of an entry.
+     */
+    public RecordCache(long maxWeight, long expireAfterMillis, ToIntBiFunction<K, V> weigher) {
+        this.maxWeight = maxWeight;
+        this.expireAfterMillis = expireAfterMillis;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Sets which entries are never evicted or expired.
+     *
+     * @param pinned The test; it must be cheap and must not call back into the cache.
+     */
+    public synchronized void setPinned(Predicate<K> pinned) {
+        this.pinned = pinned;
+    }
+
+    /**
+     * @return The cached record, or null if it has to be read from storage.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        if (isExpired(entry, System.currentTimeMillis()) && !pinned.test(key)) {
+            entries.remove(key);
+            weight -= entry.weight;
+            expirations++;
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * @return The cached record without counting a hit or miss or expiring it, or null if it is not cached.
+     */
+    public synchronized V peek(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry != null ? entry.value : null;
+    }
+
+    public synchronized void put(K key, V value) {
+        Entry<V> entry = new Entry<>(value, Math.max(1, weigher.applyAsInt(key, value)), System.currentTimeMillis());
+        Entry<V> replaced = entries.put(key, entry);
+        weight += entry.weight - (replaced != null ? replaced.weight : 0);
+        evict(key);
+    }
+
+    // Drops expired entries, then the least recently read ones until the weight fits again
+    private void evict(K keep) {
+        if (weight <= maxWeight) {
+            return;
+        }
+
+        // Reads do not refresh the write time, so expired entries can be anywhere in access order
+        removeExpired(keep);
+
+        List<K> pinnedKeys = new ArrayList<>();
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext() && weight > maxWeight) {
+            Map.Entry<K, Entry<V>> next = it.next();
+            K key = next.getKey();
+            if (key.equals(keep)) {
+                continue;
+            }
+            if (pinned.test(key)) {
+                pinnedKeys.add(key);
+                continue;
+            }
+
+            it.remove();
+            weight -= next.getValue().weight;
+            evictions++;
+        }
+
+        // Move pinned entries to the recent end, so the next eviction does not walk past them again
+        for (K key : pinnedKeys) {
+            entries.get(key);
+        }
+    }
+
+    /**
+     * Drops every entry that is past the expiry and not pinned.
+     *
+     * @return How many entries were dropped.
+     */
+    public synchronized int purgeExpired() {
+        return removeExpired(null);
+    }
+
+    private int removeExpired(K keep) {
+        if (expireAfterMillis <= 0) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, Entry<V>> next = it.next();
+            K key = next.getKey();
+            if (isExpired(next.getValue(), now) && !key.equals(keep) && !pinned.test(key)) {
+                it.remove();
+                weight -= next.getValue().weight;
+                expirations++;
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return expireAfterMillis > 0 && now - entry.writtenAt > expireAfterMillis;
+    }
+
+    public synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        weight -= entry.weight;
+        return entry.value;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getExpirationCount() {
+        return expirations;
+    }
+
+    /**
+     * @return The share of reads that were hits, from 0 to 1.
+     */
+    public synchronized double getHitRate() {
+        long reads = hits + misses;
+        return reads == 0 ? 0.0 : (double) hits / reads;
+    }
+
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        expirations = 0;
+    }
+}
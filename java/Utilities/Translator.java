@@ -9,6 +9,9 @@ import com.whiteiverson.minecraft.playtime_plugin.Main;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
@@ -84,12 +87,36 @@ public class Translator {
             for (File langFile : langFiles) {
                 String langKey = langFile.getName().replace(".yml", "").toLowerCase();
                 FileConfiguration config = loadYamlWithBomHandling(langFile);
+                applyDefaults(config, langFile.getName());
                 loadedLanguages.put(langKey, config);
                 main.getLogger().info("Loaded language file: " + langKey);
             }
         }
     }
 
+    /**
+     * Falls back to the copy shipped in the jar for keys a saved language file does not have yet,
+     * so messages added in an update show without deleting the lang folder.
+     * Languages the jar does not ship fall back to English.
+     */
+    private void applyDefaults(FileConfiguration config, String fileName) {
+        InputStream resource = main.getResource("lang/" + fileName);
+        if (resource == null) {
+            resource = main.getResource("lang/messages_en.yml");
+        }
+        if (resource == null) {
+            return;
+        }
+
+        try (Reader reader = new InputStreamReader(resource, StandardCharsets.UTF_8)) {
+            config.setDefaults(YamlConfiguration.loadConfiguration(reader));
+        } catch (IOException e) {
+            if (main.getConfig().getBoolean("logging.debug", false)) {
+                main.getLogger().log(Level.SEVERE, "Failed to read bundled language file: " + fileName, e);
+            }
+        }
+    }
+
     /**
      * Load YAML configuration
      */
@@ -127,7 +154,7 @@ public class Translator {
             return loadedLanguages.get("messages_" + lang);
         } else {
             main.getLogger().warning("Language file for '" + lang + "' not found. Falling back to default language.");
-            return loadYamlWithBomHandling(defaultLangFile);
+            return loadDefaultLanguageConfig();
         }
     }
 
@@ -150,7 +177,13 @@ public class Translator {
 
     // Fetching translated string for the console
     public String getConsoleTranslation(String key) {
-        FileConfiguration langConfig = loadYamlWithBomHandling(defaultLangFile);
+        FileConfiguration langConfig = loadDefaultLanguageConfig();
         return langConfig.getString(key, "Translation not found for key: " + key);
     }
+
+    private FileConfiguration loadDefaultLanguageConfig() {
+        FileConfiguration langConfig = loadYamlWithBomHandling(defaultLangFile);
+        applyDefaults(langConfig, defaultLangFile.getName());
+        return langConfig;
+    }
 }
\ No newline at end of file